@@ -0,0 +1,105 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * Grants buffer reservations to multi-buffer operators.
+ * A reservation is a count, not a set of buffers:
+ * the controller only limits how many buffers the operators
+ * together plan to keep pinned, so that concurrent operators
+ * do not each size their work to every available buffer.
+ * The buffer manager does not set reserved buffers aside,
+ * and ordinary pins may take any unpinned buffer.
+ * Only part of the pool can be reserved, so that the operators'
+ * plans leave a part of the pool to the ordinary pins.
+ * Requests are granted in the order in which they arrive:
+ * a request waits while an earlier request is waiting,
+ * or while fewer buffers than its minimum are unreserved.
+ * A request is granted as many buffers as are unreserved,
+ * up to its maximum.  While other reservations are held or
+ * other requests are waiting, a grant is limited to half of the
+ * reservable buffers, so that the reservable buffers are shared.
+ * A nested request, made by a transaction that already holds
+ * a reservation, never waits, since the transaction cannot release
+ * its reservation until the request is done; if too few buffers
+ * are unreserved, it is granted its minimum from the part of the
+ * pool that cannot otherwise be reserved.
+ */
+class AdmissionController {
+   private int capacity, maxGrant;
+   private int reserved = 0;
+   private Deque<Object> waiting = new ArrayDeque<Object>();
+
+   /**
+    * Creates an admission controller for a pool having
+    * the specified number of buffers.
+    * @param numbuffers the number of buffers in the pool
+    */
+   AdmissionController(int numbuffers) {
+      capacity = Math.max(1, numbuffers - numbuffers / 4);
+      maxGrant = Math.max(1, capacity / 2);
+   }
+
+   /**
+    * Waits until the request can be granted, and returns
+    * the number of buffers granted.
+    * A minimum larger than half of the reservable buffers
+    * is reduced to that number.
+    * If the request is not granted within the specified time,
+    * then a {@link BufferAbortException} is thrown.
+    * @param min the fewest buffers the caller can work with
+    * @param max the most buffers the caller can use
+    * @param nested true if the caller already holds a reservation
+    * @param maxtime the maximum waiting time, in milliseconds
+    * @return the number of buffers granted
+    */
+   synchronized int admit(int min, int max, boolean nested, long maxtime) {
+      min = Math.min(Math.max(1, min), maxGrant);
+      max = Math.max(min, max);
+      if (nested) {
+         int granted = Math.max(min, Math.min(max, Math.min(maxGrant, capacity - reserved)));
+         reserved += granted;
+         return granted;
+      }
+      Object request = new Object();
+      waiting.addLast(request);
+      try {
+         long timestamp = System.currentTimeMillis();
+         while (waiting.peekFirst() != request || capacity - reserved < min) {
+            long remaining = timestamp + maxtime - System.currentTimeMillis();
+            if (remaining <= 0)
+               throw new BufferAbortException();
+            wait(remaining);
+         }
+      }
+      catch(InterruptedException e) {
+         throw new BufferAbortException();
+      }
+      finally {
+         waiting.remove(request);
+         notifyAll();
+      }
+      int limit = (reserved == 0 && waiting.isEmpty()) ? capacity : maxGrant;
+      int granted = Math.min(max, Math.min(limit, capacity - reserved));
+      reserved += granted;
+      return granted;
+   }
+
+   /**
+    * Returns buffers that were granted earlier,
+    * and wakes up the waiting requests.
+    * @param n the number of buffers to return
+    */
+   synchronized void release(int n) {
+      reserved -= n;
+      notifyAll();
+   }
+
+   /**
+    * Returns the number of buffers currently reserved.
+    * @return the number of reserved buffers
+    */
+   synchronized int reserved() {
+      return reserved;
+   }
+}
@@ -1,15 +1,48 @@
 package simpledb.buffer;
 
 import simpledb.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * The buffers are indexed by the block they hold, so that
+ * finding a block in the pool takes constant time
+ * regardless of the size of the pool.
+ * The choice of which unpinned buffer to replace is
+ * delegated to a {@link ReplacementPolicy}.
+ * Large one-pass scans may instead reuse the buffers of
+ * their own {@link BufferRing}, and an unpinned buffer whose
+ * block has been pinned only by such scans is replaced
+ * before the policy is consulted, so that those blocks
+ * are never promoted over the blocks of other transactions.
+ * Pin requests that find no available buffer wait in a
+ * first-come, first-served queue; a buffer that becomes
+ * available is handed directly to the oldest request.
+ * The manager also counts its dirty buffers, so that a
+ * {@link BufferFlusher} can write them out in the background,
+ * and keeps the set of dirty buffers of each transaction,
+ * so that a commit need not examine the whole pool.
  * @author Edward Sciore
  *
  */
 class BasicBufferMgr {
    private Buffer[] bufferpool;
+   private Map<Block,Buffer> bufferPoolMap;
+   private ReplacementPolicy policy;
+   private Set<Buffer> coldBuffers = new LinkedHashSet<Buffer>();
+   private Deque<BufferWaiter> waiters = new ArrayDeque<BufferWaiter>();
    private int numAvailable;
+   private long hits = 0, misses = 0;
+   private AtomicInteger numDirty = new AtomicInteger(0);
+   private ConcurrentMap<Integer,Set<Buffer>> modifiedBuffers =
+      new ConcurrentHashMap<Integer,Set<Buffer>>();
+   private ConcurrentMap<Integer,Set<String>> modifiedFiles =
+      new ConcurrentHashMap<Integer,Set<String>>();
+   private long evictionWrites = 0, backgroundWrites = 0;
+   private volatile long writes = 0;
+   private int flushHand = 0;
    
    /**
     * Creates a buffer manager having the specified number 
@@ -23,22 +56,77 @@ class BasicBufferMgr {
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
     * @param numbuffs the number of buffer slots to allocate
+    * @param policy the policy that chooses which buffer to replace
+    * @param arena the memory from which the buffers' pages are taken
     */
-   BasicBufferMgr(int numbuffs) {
+   BasicBufferMgr(int numbuffs, ReplacementPolicy policy, PageArena arena) {
+      this.policy = policy;
       bufferpool = new Buffer[numbuffs];
+      bufferPoolMap = new HashMap<Block,Buffer>(2 * numbuffs);
       numAvailable = numbuffs;
-      for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer();
+      for (int i=0; i<numbuffs; i++) {
+         bufferpool[i] = new Buffer(this, arena.newPage());
+         policy.bufferAdded(bufferpool[i]);
+      }
    }
    
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Returns the blocks of the buffers that are currently
+    * dirty due to a modification by the specified transaction.
     * @param txnum the transaction's id number
+    * @return the blocks modified by the transaction
     */
-   synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool)
-         if (buff.isModifiedBy(txnum))
-         buff.flush();
+   List<Block> modifiedBlocks(int txnum) {
+      List<Block> blks = new ArrayList<Block>();
+      Set<Buffer> buffs = modifiedBuffers.get(txnum);
+      if (buffs != null)
+         for (Buffer buff : buffs) {
+            Block blk = buff.block();
+            if (blk != null)
+               blks.add(blk);
+         }
+      return blks;
+   }
+   
+   /**
+    * Returns the names of the files having a block that
+    * was modified by the specified transaction,
+    * including blocks that have already been written,
+    * and forgets them.
+    * @param txnum the transaction's id number
+    * @return the files modified by the transaction
+    */
+   Set<String> takeModifiedFiles(int txnum) {
+      Set<String> files = modifiedFiles.remove(txnum);
+      return (files == null) ? Collections.<String>emptySet() : files;
+   }
+   
+   /**
+    * Flushes the buffer assigned to the specified block,
+    * if it is still dirty due to a modification by the
+    * specified transaction.
+    * The caller must already have flushed the log records
+    * of the transaction's modifications.
+    * @param blk a reference to a disk block
+    * @param txnum the transaction's id number
+    */
+   synchronized void flush(Block blk, int txnum) {
+      Buffer buff = findExistingBuffer(blk);
+      if (buff != null && buff.isModifiedBy(txnum))
+         buff.flushLogged();
+   }
+   
+   /**
+    * Discards the set of dirty buffers of the specified transaction,
+    * if it is empty.
+    * This method is called after the transaction's buffers
+    * have been flushed.
+    * @param txnum the transaction's id number
+    */
+   void forgetModifications(int txnum) {
+      Set<Buffer> buffs = modifiedBuffers.get(txnum);
+      if (buffs != null && buffs.isEmpty())
+         modifiedBuffers.remove(txnum);
    }
    
    /**
@@ -46,51 +134,274 @@ class BasicBufferMgr {
     * If there is already a buffer assigned to that block
     * then that buffer is used;  
     * otherwise, an unpinned buffer from the pool is chosen.
+    * If a ring is specified, the pin is made on behalf of a
+    * one-pass scan: the chosen buffer is preferably the ring's
+    * oldest buffer, and the replacement policy is not told
+    * of the reference.
     * Returns a null value if there are no available buffers.
     * @param blk a reference to a disk block
+    * @param ring the scan's buffer ring, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pin(Block blk) {
+   synchronized Buffer pin(Block blk, BufferRing ring) {
       Buffer buff = findExistingBuffer(blk);
       if (buff == null) {
-         buff = chooseUnpinnedBuffer();
+         buff = chooseUnpinnedBuffer(ring);
          if (buff == null)
             return null;
+         bufferPoolMap.remove(buff.block());
+         if (buff.isModified())
+            evictionWrites++;
          buff.assignToBlock(blk);
+         bufferPoolMap.put(blk, buff);
+         if (ring != null)
+            ring.add(buff);
+         misses++;
       }
+      else
+         hits++;
       if (!buff.isPinned())
          numAvailable--;
-      buff.pin();
+      pinBuffer(buff, ring);
       return buff;
    }
    
    /**
-    * Allocates a new block in the specified file, and
-    * pins a buffer to it. 
-    * Returns null (without allocating the block) if 
-    * there are no available buffers.
-    * @param filename the name of the file
+    * Pins a buffer to a new block, which is the next block of
+    * its file: an unpinned buffer is chosen, its page is formatted
+    * with the specified formatter, and the page is appended to the file.
+    * Nothing is appended if no buffer is available.
+    * A buffer that already holds the block is pinned as it is,
+    * without formatting its page again; since the block does not
+    * exist yet, such a buffer is left over from a deleted file.
+    * A ring is used as in {@link #pin(Block, BufferRing)}.
+    * Returns null if there are no available buffers.
+    * @param blk a reference to the new block
     * @param fmtr a pageformatter object, used to format the new block
+    * @param ring the scan's buffer ring, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = chooseUnpinnedBuffer();
+   synchronized Buffer pinNew(Block blk, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = findExistingBuffer(blk);
+      if (buff == null) {
+         buff = chooseUnpinnedBuffer(ring);
+         if (buff == null)
+            return null;
+         bufferPoolMap.remove(buff.block());
+         if (buff.isModified())
+            evictionWrites++;
+         buff.assignToNew(blk, fmtr);
+         bufferPoolMap.put(blk, buff);
+         if (ring != null)
+            ring.add(buff);
+      }
+      else
+         hits++;
+      if (!buff.isPinned())
+         numAvailable--;
+      pinBuffer(buff, ring);
+      return buff;
+   }
+   
+   /**
+    * Pins a buffer to the specified block, whose contents have
+    * been read into a page as part of a multi-block read.
+    * If the block is already in the pool, then its buffer is used;
+    * otherwise, if the block was read, an unpinned buffer is chosen, as in
+    * {@link #pin(Block, BufferRing)}, and its page is exchanged
+    * for the page that was read, which avoids copying the block.
+    * The page array then holds the buffer's previous page.
+    * The pin does not count as a reference for the replacement
+    * policy; a caller that uses the block is expected to pin it again.
+    * Returns null if the block is not in the pool and was not read,
+    * if no buffer is available without waiting,
+    * or if some buffer of this manager has been written
+    * since the read started, because the page might then be out of date.
+    * @param blk a reference to the block
+    * @param pages the pages of the multi-block read, or null if the block was not read
+    * @param i the index of the block's page
+    * @param writesBefore the value of {@link #writes()} before the read
+    * @param ring the scan's buffer ring, or null
+    * @return the pinned buffer, or null
+    */
+   synchronized Buffer pinLoaded(Block blk, Page[] pages, int i, long writesBefore, BufferRing ring) {
+      Buffer buff = findExistingBuffer(blk);
+      if (buff == null) {
+         buff = assignLoaded(blk, pages, i, writesBefore, ring);
+         if (buff == null)
+            return null;
+      }
+      else
+         hits++;
+      if (!buff.isPinned())
+         numAvailable--;
+      coldBuffers.remove(buff);
+      buff.pinForScan();
+      policy.pinnedByScan(buff);
+      return buff;
+   }
+   
+   /**
+    * Puts the specified block, whose contents have been read
+    * into a page as part of a multi-block read, into an
+    * unpinned buffer without pinning it, as in
+    * {@link #pinLoaded(Block, Page[], int, long, BufferRing)}.
+    * A block that is already in the pool is left alone.
+    * The buffer is not made a candidate for early replacement,
+    * as the buffers of one-pass scans are when unpinned,
+    * since the block has not been used yet.
+    * @param blk a reference to the block
+    * @param pages the pages of the multi-block read
+    * @param i the index of the block's page
+    * @param writesBefore the value of {@link #writes()} before the read
+    * @param ring the scan's buffer ring, or null
+    */
+   synchronized void load(Block blk, Page[] pages, int i, long writesBefore, BufferRing ring) {
+      if (findExistingBuffer(blk) != null)
+         return;
+      Buffer buff = assignLoaded(blk, pages, i, writesBefore, ring);
+      if (buff == null)
+         return;
+      buff.pinForScan();  // the policy is told of the new block as if by a scan
+      policy.pinnedByScan(buff);
+      buff.unpin();
+      policy.unpinned(buff);
+   }
+   
+   private Buffer assignLoaded(Block blk, Page[] pages, int i, long writesBefore, BufferRing ring) {
+      if (pages == null || !waiters.isEmpty() || writes != writesBefore)
+         return null;
+      Buffer buff = chooseUnpinnedBuffer(ring);
       if (buff == null)
          return null;
-      buff.assignToNew(filename, fmtr);
-      numAvailable--;
-      buff.pin();
+      bufferPoolMap.remove(buff.block());
+      if (buff.isModified())
+         evictionWrites++;
+      pages[i] = buff.assignToPage(blk, pages[i]);
+      bufferPoolMap.put(blk, buff);
+      if (ring != null)
+         ring.add(buff);
+      misses++;
+      return buff;
+   }
+   
+   /**
+    * Detaches the unpinned buffers that hold blocks of the
+    * specified file, without writing them, because the file
+    * is being deleted.  The buffers are reused first.
+    * @param filename the name of the file
+    */
+   synchronized void discard(String filename) {
+      for (Buffer buff : bufferpool) {
+         Block blk = buff.block();
+         if (blk != null && blk.fileName().equals(filename) && !buff.isPinned()) {
+            bufferPoolMap.remove(blk);
+            buff.discard();
+            coldBuffers.add(buff);
+         }
+      }
+   }
+   
+   /**
+    * Returns true if the specified block is in the pool.
+    * @param blk a reference to a disk block
+    * @return true if a buffer holds the block
+    */
+   synchronized boolean isResident(Block blk) {
+      return bufferPoolMap.containsKey(blk);
+   }
+   
+   /**
+    * Returns the number of buffers of this manager that have
+    * been written to disk.  The value changes whenever
+    * the disk contents of one of the manager's blocks may have changed.
+    * @return the number of buffer writes
+    */
+   long writes() {
+      return writes;
+   }
+   
+   /**
+    * Performs the specified pin request, or adds it to the
+    * end of the waiting queue if no buffer is available.
+    * While other requests are waiting, a request is performed
+    * immediately only if its block is already in the pool,
+    * so that a new request cannot take a buffer ahead of them.
+    * @param w the pin request
+    * @return the pinned buffer, or null if the request was queued
+    */
+   synchronized Buffer pinOrWait(BufferWaiter w) {
+      Buffer buff = null;
+      if (waiters.isEmpty() || bufferPoolMap.containsKey(w.block()))
+         buff = w.tryPin(this);
+      if (buff == null)
+         waiters.addLast(w);
       return buff;
    }
    
+   /**
+    * Removes the specified request from the waiting queue,
+    * if it has not been granted yet.
+    * @param w the pin request
+    * @return true if the request was still waiting
+    */
+   synchronized boolean cancel(BufferWaiter w) {
+      return waiters.remove(w);
+   }
+   
+   /**
+    * Returns the number of pin requests waiting for a buffer.
+    * @return the length of the waiting queue
+    */
+   synchronized int waiting() {
+      return waiters.size();
+   }
+   
    /**
     * Unpins the specified buffer.
+    * If the buffer becomes available, it is used to perform
+    * the waiting requests, oldest first.
     * @param buff the buffer to be unpinned
     */
    synchronized void unpin(Buffer buff) {
       buff.unpin();
-      if (!buff.isPinned())
+      if (!buff.isPinned()) {
          numAvailable++;
+         policy.unpinned(buff);
+         if (buff.pinTime(1) == 0)  // pinned only by one-pass scans
+            coldBuffers.add(buff);
+         grantWaiters();
+      }
+   }
+   
+   private void grantWaiters() {
+      while (!waiters.isEmpty()) {
+         BufferWaiter w = waiters.peekFirst();
+         Buffer buff;
+         try {
+            buff = w.tryPin(this);
+         }
+         catch(RuntimeException e) {
+            waiters.pollFirst();
+            w.fail(e);
+            continue;
+         }
+         if (buff == null)
+            return;
+         waiters.pollFirst();
+         w.grant(buff);
+      }
+   }
+   
+   /**
+    * Adds the heat of each block in the pool that has been
+    * pinned other than by a one-pass scan to the specified list.
+    * @param heats the list of block heats
+    */
+   synchronized void addHeat(List<BlockHeat> heats) {
+      for (Buffer buff : bufferpool)
+         if (buff.block() != null && buff.pinTime(1) != 0)
+            heats.add(new BlockHeat(buff));
    }
    
    /**
@@ -101,19 +412,151 @@ class BasicBufferMgr {
       return numAvailable;
    }
    
-   private Buffer findExistingBuffer(Block blk) {
-      for (Buffer buff : bufferpool) {
-         Block b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
+   /**
+    * Returns the fraction of the buffers that are dirty.
+    * @return the dirty ratio
+    */
+   double dirtyRatio() {
+      return (double) numDirty.get() / bufferpool.length;
+   }
+   
+   /**
+    * Writes unpinned dirty buffers to disk until the
+    * fraction of dirty buffers is at most the specified ratio,
+    * or until every buffer has been examined once.
+    * The buffers are examined in circular order, continuing
+    * from where the previous call stopped.
+    * The lock is held for one buffer at a time, so
+    * that pins are not delayed for long.
+    * Pinned buffers are skipped, because their pages
+    * may be in the middle of being modified.
+    * @param ratio the desired dirty ratio
+    */
+   void flushUnpinned(double ratio) {
+      int target = (int) (ratio * bufferpool.length);
+      for (int i=0; i<bufferpool.length && numDirty.get() > target; i++) {
+         synchronized (this) {
+            Buffer buff = bufferpool[flushHand];
+            flushHand = (flushHand + 1) % bufferpool.length;
+            if (!buff.isPinned() && buff.isModified()) {
+               buff.flush();
+               backgroundWrites++;
+            }
+         }
       }
-      return null;
    }
    
-   private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
-         return buff;
-      return null;
+   /**
+    * Returns the number of dirty buffers that were written
+    * to disk because they were chosen for replacement.
+    * @return the number of eviction writes
+    */
+   synchronized long evictionWrites() {
+      return evictionWrites;
+   }
+   
+   /**
+    * Returns the number of dirty buffers that were written
+    * to disk by {@link #flushUnpinned(double)}.
+    * @return the number of background writes
+    */
+   synchronized long backgroundWrites() {
+      return backgroundWrites;
+   }
+   
+   /**
+    * Records that a buffer of this manager has been modified
+    * by a transaction other than the one that last modified it.
+    * This method is called by {@link Buffer}, without
+    * holding the manager's lock.
+    * @param buff the modified buffer
+    * @param oldtxnum the previous modifying transaction, or -1 if the buffer was clean
+    * @param txnum the modifying transaction
+    */
+   void modified(Buffer buff, int oldtxnum, int txnum) {
+      if (oldtxnum < 0)
+         numDirty.incrementAndGet();
+      else
+         removeModified(buff, oldtxnum);
+      Set<Buffer> buffs = modifiedBuffers.get(txnum);
+      if (buffs == null) {
+         buffs = Collections.newSetFromMap(new ConcurrentHashMap<Buffer,Boolean>());
+         Set<Buffer> existing = modifiedBuffers.putIfAbsent(txnum, buffs);
+         if (existing != null)
+            buffs = existing;
+      }
+      buffs.add(buff);
+      Set<String> files = modifiedFiles.get(txnum);
+      if (files == null) {
+         files = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+         Set<String> existing = modifiedFiles.putIfAbsent(txnum, files);
+         if (existing != null)
+            files = existing;
+      }
+      files.add(buff.block().fileName());
+   }
+   
+   /**
+    * Records that a dirty buffer of this manager has been written.
+    * This method is called by {@link Buffer},
+    * while holding the manager's lock.
+    * @param buff the written buffer
+    * @param txnum the transaction that last modified the buffer
+    */
+   void cleaned(Buffer buff, int txnum) {
+      writes++;
+      numDirty.decrementAndGet();
+      removeModified(buff, txnum);
+   }
+   
+   private void removeModified(Buffer buff, int txnum) {
+      Set<Buffer> buffs = modifiedBuffers.get(txnum);
+      if (buffs != null)
+         buffs.remove(buff);
+   }
+   
+   /**
+    * Returns the number of calls to pin that found
+    * the block already in the pool.
+    * @return the number of buffer hits
+    */
+   synchronized long hits() {
+      return hits;
+   }
+   
+   /**
+    * Returns the number of calls to pin that had
+    * to read the block from disk.
+    * @return the number of buffer misses
+    */
+   synchronized long misses() {
+      return misses;
+   }
+   
+   private Buffer findExistingBuffer(Block blk) {
+      return bufferPoolMap.get(blk);
+   }
+   
+   private Buffer chooseUnpinnedBuffer(BufferRing ring) {
+      Buffer buff = (ring == null) ? null : ring.recycle(this);
+      if (buff == null && !coldBuffers.isEmpty())
+         buff = coldBuffers.iterator().next();
+      if (buff == null)
+         buff = policy.chooseUnpinnedBuffer();
+      if (buff != null)
+         coldBuffers.remove(buff);
+      return buff;
+   }
+   
+   private void pinBuffer(Buffer buff, BufferRing ring) {
+      coldBuffers.remove(buff);
+      if (ring == null) {
+         buff.pin();
+         policy.pinned(buff);
+      }
+      else {
+         buff.pinForScan();
+         policy.pinnedByScan(buff);
+      }
    }
 }
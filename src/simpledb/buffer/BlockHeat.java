@@ -0,0 +1,45 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+
+/**
+ * The heat of a resident block, taken from the pin history
+ * of its buffer.
+ * Blocks are ranked as by the LRU-2 policy: a block pinned
+ * at least twice is hotter than a block pinned once, and
+ * among those, the block whose second most recent pin is
+ * more recent is hotter.  Ties are broken by the most
+ * recent pin.
+ */
+class BlockHeat implements Comparable<BlockHeat> {
+   private Block blk;
+   private long last, previous;
+
+   /**
+    * Records the heat of the specified buffer's block.
+    * The method is called while holding the lock of the
+    * buffer's partition.
+    * @param buff a buffer that holds a block
+    */
+   BlockHeat(Buffer buff) {
+      blk = buff.block();
+      last = buff.pinTime(1);
+      previous = buff.pinTime(2);
+   }
+
+   /**
+    * Returns the block.
+    * @return the block
+    */
+   Block block() {
+      return blk;
+   }
+
+   /**
+    * Orders the hotter block first.
+    */
+   public int compareTo(BlockHeat other) {
+      int result = Long.compare(other.previous, previous);
+      return (result != 0) ? result : Long.compare(other.last, last);
+   }
+}
@@ -2,6 +2,7 @@ package simpledb.buffer;
 
 import simpledb.server.SimpleDB;
 import simpledb.file.*;
+import java.util.Arrays;
 
 /**
  * An individual buffer.
@@ -11,20 +12,33 @@ import simpledb.file.*;
  * whether the contents of the page have been modified,
  * and if so, the id of the modifying transaction and
  * the LSN of the corresponding log record.
+ * A buffer also remembers when it was most recently pinned
+ * and unpinned, which is used by the
+ * {@link ReplacementPolicy replacement policies}.
  * @author Edward Sciore
  */
 public class Buffer {
-   private Page contents = new Page();
+   /**
+    * The number of pin times that a buffer remembers.
+    */
+   public static final int HISTORY_SIZE = 4;
+
+   private final BasicBufferMgr owner;
+   private Page contents;
    private Block blk = null;
    private int pins = 0;
    private int modifiedBy = -1;  // negative means not modified
-   private int logSequenceNumber = -1; // negative means no corresponding log record
+   private long logSequenceNumber = -1; // negative means no corresponding log record
+   private long[] pinHistory = new long[HISTORY_SIZE]; // most recent first; 0 means never
+   private long unpinTime = 0;
 
    /**
-    * Creates a new buffer, wrapping a new 
-    * {@link simpledb.file.Page page}.  
+    * Creates a new buffer, wrapping the specified
+    * {@link simpledb.file.Page page}, which is normally
+    * a slice of the buffer manager's {@link PageArena}.
     * This constructor is called exclusively by the 
-    * class {@link BasicBufferMgr}.   
+    * class {@link BasicBufferMgr}, which is told
+    * whenever the buffer becomes dirty or clean.
     * It depends on  the 
     * {@link simpledb.log.LogMgr LogMgr} object 
     * that it gets from the class
@@ -33,8 +47,13 @@ public class Buffer {
     * Thus this constructor cannot be called until 
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * @param owner the buffer manager that owns the buffer
+    * @param contents the page of the buffer
     */
-   public Buffer() {}
+   Buffer(BasicBufferMgr owner, Page contents) {
+      this.owner = owner;
+      this.contents = contents;
+   }
    
    /**
     * Returns the integer value at the specified offset of the
@@ -60,6 +79,17 @@ public class Buffer {
       return contents.getString(offset);
    }
 
+   /**
+    * Returns the specified number of bytes,
+    * starting at the specified offset of the buffer's page.
+    * @param offset the byte offset of the page
+    * @param n the number of bytes
+    * @return the bytes at that offset
+    */
+   public byte[] getBytes(int offset, int n) {
+      return contents.getBytes(offset, n);
+   }
+
    /**
     * Writes an integer to the specified offset of the
     * buffer's page.
@@ -74,7 +104,9 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setInt(int offset, int val, int txnum, int lsn) {
+   public void setInt(int offset, int val, int txnum, long lsn) {
+      if (modifiedBy != txnum)
+         owner.modified(this, modifiedBy, txnum);
       modifiedBy = txnum;
       if (lsn >= 0)
 	      logSequenceNumber = lsn;
@@ -95,13 +127,33 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setString(int offset, String val, int txnum, int lsn) {
+   public void setString(int offset, String val, int txnum, long lsn) {
+      if (modifiedBy != txnum)
+         owner.modified(this, modifiedBy, txnum);
       modifiedBy = txnum;
       if (lsn >= 0)
 	      logSequenceNumber = lsn;
       contents.setString(offset, val);
    }
 
+   /**
+    * Writes bytes to the buffer's page, starting at the
+    * specified offset, as {@link #setInt(int, int, int, long)} does
+    * for an integer.
+    * @param offset the byte offset within the page
+    * @param val the bytes to be written
+    * @param txnum the id of the transaction performing the modification
+    * @param lsn the LSN of the corresponding log record
+    */
+   public void setBytes(int offset, byte[] val, int txnum, long lsn) {
+      if (modifiedBy != txnum)
+         owner.modified(this, modifiedBy, txnum);
+      modifiedBy = txnum;
+      if (lsn >= 0)
+         logSequenceNumber = lsn;
+      contents.setBytes(offset, val);
+   }
+
    /**
     * Returns a reference to the disk block
     * that the buffer is pinned to.
@@ -117,20 +169,70 @@ public class Buffer {
     * The method ensures that the corresponding log
     * record has been written to disk prior to writing
     * the page to disk.
+    * The page is written through the file manager's scheduler,
+    * so the write may still be in progress when the method
+    * returns; it is complete once the file has been forced.
     */
    void flush() {
       if (modifiedBy >= 0) {
          SimpleDB.logMgr().flush(logSequenceNumber);
-         contents.write(blk);
+         flushLogged();
+      }
+   }
+
+   /**
+    * Writes the page to its disk block if the page is dirty,
+    * as {@link #flush()} does, but without first flushing the log:
+    * the caller must already have flushed the log records
+    * of the modifications.
+    */
+   void flushLogged() {
+      if (modifiedBy >= 0) {
+         contents.writeAsync(blk);
+         owner.cleaned(this, modifiedBy);
          modifiedBy = -1;
       }
    }
 
    /**
-    * Increases the buffer's pin count.
+    * Returns the time of the k-th most recent pin
+    * of the buffer's current block, as given by
+    * {@link System#nanoTime()}.
+    * A value of 0 means that the block has been
+    * pinned fewer than k times since it was read in.
+    * @param k a value between 1 and {@link #HISTORY_SIZE}
+    * @return the time of the k-th most recent pin
+    */
+   public long pinTime(int k) {
+      return pinHistory[k-1];
+   }
+
+   /**
+    * Returns the time that the buffer's pin count last dropped to 0,
+    * or 0 if the buffer's current block has never been unpinned.
+    * @return the time of the most recent unpin
+    */
+   public long unpinTime() {
+      return unpinTime;
+   }
+
+   /**
+    * Increases the buffer's pin count,
+    * and records the pin in the buffer's history.
     */
    void pin() {
       pins++;
+      System.arraycopy(pinHistory, 0, pinHistory, 1, HISTORY_SIZE-1);
+      pinHistory[0] = System.nanoTime();
+   }
+
+   /**
+    * Increases the buffer's pin count without recording
+    * the pin in the buffer's history.
+    * This method is used for pins by a {@link BufferRing ring} scan.
+    */
+   void pinForScan() {
+      pins++;
    }
 
    /**
@@ -138,6 +240,16 @@ public class Buffer {
     */
    void unpin() {
       pins--;
+      if (pins == 0)
+         unpinTime = System.nanoTime();
+   }
+
+   /**
+    * Returns the buffer manager that owns the buffer.
+    * @return the owning buffer manager
+    */
+   BasicBufferMgr owner() {
+      return owner;
    }
 
    /**
@@ -159,6 +271,14 @@ public class Buffer {
       return txnum == modifiedBy;
    }
 
+   /**
+    * Returns true if the buffer is dirty.
+    * @return true if some transaction modified the buffer
+    */
+   boolean isModified() {
+      return modifiedBy >= 0;
+   }
+
    /**
     * Reads the contents of the specified block into
     * the buffer's page.
@@ -171,20 +291,70 @@ public class Buffer {
       blk = b;
       contents.read(blk);
       pins = 0;
+      clearHistory();
    }
 
    /**
-    * Initializes the buffer's page according to the specified formatter,
-    * and appends the page to the specified file.
+    * Initializes the buffer's page according to the specified
+    * formatter, appends the page to the file of the specified
+    * block, and assigns the buffer to that block.
+    * The block must be the next block of its file; the caller
+    * ensures that no other block is appended to the file meanwhile.
     * If the buffer was dirty, then the contents
     * of the previous page are first written to disk.
-    * @param filename the name of the file
+    * @param b a reference to the block to be appended
     * @param fmtr a page formatter, used to initialize the page
     */
-   void assignToNew(String filename, PageFormatter fmtr) {
+   void assignToNew(Block b, PageFormatter fmtr) {
       flush();
       fmtr.format(contents);
-      blk = contents.append(filename);
+      blk = null;
+      Block appended = contents.append(b.fileName());
+      if (!appended.equals(b))
+         throw new RuntimeException("cannot append block " + b);
+      blk = b;
       pins = 0;
+      clearHistory();
+   }
+
+   /**
+    * Assigns the buffer to a block whose contents have already
+    * been read into the specified page, by a multi-block read,
+    * and makes that page the buffer's page.
+    * If the buffer was dirty, then the contents
+    * of the previous page are first written to disk.
+    * @param b a reference to the data block
+    * @param p a page holding the contents of the block
+    * @return the buffer's previous page, which now belongs to the caller
+    */
+   Page assignToPage(Block b, Page p) {
+      flush();
+      Page old = contents;
+      contents = p;
+      blk = b;
+      pins = 0;
+      clearHistory();
+      return old;
+   }
+
+   /**
+    * Detaches the buffer from its block without writing the page,
+    * because the block's file has been deleted.
+    * If the buffer was dirty, its owner is told that
+    * it is now clean.
+    */
+   void discard() {
+      if (modifiedBy >= 0) {
+         owner.cleaned(this, modifiedBy);
+         modifiedBy = -1;
+      }
+      blk = null;
+      pins = 0;
+      clearHistory();
+   }
+
+   private void clearHistory() {
+      Arrays.fill(pinHistory, 0);
+      unpinTime = 0;
    }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package simpledb.buffer;
+
+/**
+ * A background thread that writes dirty buffers to disk,
+ * so that a buffer chosen for replacement is usually clean
+ * and the pinning thread does not have to write it.
+ * The thread periodically examines each partition of the
+ * buffer pool.  When a partition's fraction of dirty buffers
+ * exceeds the high-water mark, its unpinned dirty buffers
+ * are written until the fraction drops to the low-water mark.
+ * Each write first flushes the log up to the buffer's LSN,
+ * as {@link Buffer#flush()} always does.
+ */
+class BufferFlusher extends Thread {
+   private static final long INTERVAL = 100; // milliseconds
+   private BasicBufferMgr[] partitions;
+   private double highWater, lowWater;
+   private volatile boolean stopped = false;
+
+   /**
+    * Creates a flusher for the specified partitions.
+    * The thread is a daemon, and so does not keep
+    * the server running.
+    * @param partitions the partitions of the buffer pool
+    * @param highWater the dirty ratio at which flushing starts
+    * @param lowWater the dirty ratio at which flushing stops
+    */
+   BufferFlusher(BasicBufferMgr[] partitions, double highWater, double lowWater) {
+      super("buffer flusher");
+      this.partitions = partitions;
+      this.highWater = highWater;
+      this.lowWater = lowWater;
+      setDaemon(true);
+   }
+
+   /**
+    * Asks the thread to stop after its current round.
+    * The thread is not interrupted, because interrupting
+    * a thread during a write would close the file's channel.
+    */
+   void shutdown() {
+      stopped = true;
+   }
+
+   public void run() {
+      try {
+         while (!stopped) {
+            for (BasicBufferMgr part : partitions)
+               if (part.dirtyRatio() > highWater)
+                  part.flushUnpinned(lowWater);
+            Thread.sleep(INTERVAL);
+         }
+      }
+      catch (InterruptedException e) {
+         // the flusher has been stopped
+      }
+   }
+}
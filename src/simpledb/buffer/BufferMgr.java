@@ -1,124 +1,843 @@
 package simpledb.buffer;
 
 import simpledb.file.*;
+import simpledb.server.SimpleDB;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The publicly-accessible buffer manager.
- * A buffer manager wraps a basic buffer manager, and
- * provides the same methods. The difference is that
- * the methods {@link #pin(Block) pin} and 
+ * A buffer manager wraps one or more basic buffer managers,
+ * called partitions, and provides the same methods.
+ * Each block is handled by exactly one partition,
+ * determined from its file name and block number.
+ * The partitions are locked independently, so that
+ * pins of blocks in different partitions never contend.
+ * Consecutive blocks of a file belong to consecutive
+ * partitions, so a run of blocks is spread evenly across them.
+ * <p>
+ * The methods {@link #pin(Block) pin} and
  * {@link #pinNew(String, PageFormatter) pinNew}
  * will never return null.
- * If no buffers are currently available, then the
- * calling thread will be placed on a waiting list.
- * The waiting threads are removed from the list when 
- * a buffer becomes available.
- * If a thread has been waiting for a buffer for an
- * excessive amount of time (currently, 10 seconds)
+ * If no buffers are currently available in the block's partition,
+ * then the calling thread will be placed at the end of that
+ * partition's waiting queue.
+ * When a buffer of the partition becomes available, it is pinned
+ * for the thread at the head of the queue, and only that
+ * thread is woken up.
+ * If a thread has been waiting for a buffer for longer than
+ * the {@link #setMaxWaitTime(long) maximum waiting time}
+ * (by default, 10 seconds)
  * then a {@link BufferAbortException} is thrown.
+ * The waiting times are recorded in a {@link WaitHistogram}.
+ * <p>
+ * A large one-pass scan can pin its blocks through a
+ * {@link BufferRing}, obtained from {@link #newRing(int)}, so that
+ * it reuses a few buffers of its own instead of replacing
+ * the blocks that other transactions use frequently.
+ * <p>
+ * An operator that keeps many blocks pinned at once, such as
+ * a multibuffer product, first {@link #reserve(int, int) reserves}
+ * buffers, and sizes its work according to the reservation.
+ * The total reserved does not exceed three quarters of the pool,
+ * except by the minimums of nested requests, so concurrent operators
+ * cannot each plan to use all available buffers.
+ * Reservations are not enforced by the pins themselves:
+ * they bound the operators' plans, and ordinary pins
+ * may still take any unpinned buffer.
  * @author Edward Sciore
  */
 public class BufferMgr {
-   private static final long MAX_TIME = 10000; // 10 seconds
-   private BasicBufferMgr bufferMgr;
-   
    /**
-    * Creates a new buffer manager having the specified 
+    * The default maximum time, in milliseconds,
+    * that a thread waits for a buffer.
+    */
+   public static final long DEFAULT_MAX_WAIT_TIME = 10000; // 10 seconds
+
+   /**
+    * The smallest number of buffers that a partition may have.
+    * Small pools are therefore not partitioned at all.
+    */
+   public static final int MIN_PARTITION_SIZE = 64;
+
+   /**
+    * The largest number of blocks that {@link #pinRange} reads
+    * with a single call to the operating system.
+    */
+   public static final int MAX_RUN = 32;
+
+   private static final Comparator<Block> BLOCK_ORDER = new Comparator<Block>() {
+      public int compare(Block b1, Block b2) {
+         int result = b1.fileName().compareTo(b2.fileName());
+         return (result != 0) ? result : Integer.compare(b1.number(), b2.number());
+      }
+   };
+
+   private BasicBufferMgr[] partitions;
+   private int numbuffers;
+   private int ringSize = 0;
+   private AdmissionController admission;
+   private volatile long maxWaitTime = DEFAULT_MAX_WAIT_TIME;
+   private WaitHistogram waitTimes = new WaitHistogram();
+   private BufferFlusher flusher = null;
+   private volatile Prefetcher prefetcher = null;
+   private int runSize = 1;
+   private Queue<Page[]> runPages = new ConcurrentLinkedQueue<Page[]>();
+   private ConcurrentMap<String,ReentrantLock> appendLocks =
+      new ConcurrentHashMap<String,ReentrantLock>();
+
+   /**
+    * Creates a new buffer manager having the specified
     * number of buffers.
     * This constructor depends on both the {@link FileMgr} and
-    * {@link simpledb.log.LogMgr LogMgr} objects 
+    * {@link simpledb.log.LogMgr LogMgr} objects
     * that it gets from the class
     * {@link simpledb.server.SimpleDB}.
     * Those objects are created during system initialization.
-    * Thus this constructor cannot be called until 
+    * Thus this constructor cannot be called until
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * The buffers are replaced according to the LRU policy,
+    * and are not partitioned.
     * @param numbuffers the number of buffer slots to allocate
     */
    public BufferMgr(int numbuffers) {
-      bufferMgr = new BasicBufferMgr(numbuffers);
+      this(numbuffers, ReplacementPolicy.LRU);
    }
-   
+
+   /**
+    * Creates a new, unpartitioned buffer manager having the specified
+    * number of buffers and the specified replacement policy.
+    * The policy name is one of the names defined in
+    * {@link ReplacementPolicy}.
+    * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    */
+   public BufferMgr(int numbuffers, String policyname) {
+      this(numbuffers, policyname, 1);
+   }
+
+   /**
+    * Creates a new buffer manager having the specified
+    * number of buffers, replacement policy and number of partitions.
+    * Each partition has its own replacement policy object.
+    * The pages of all buffers are allocated as a single
+    * {@link PageArena}.
+    * The number of partitions is reduced if necessary,
+    * so that each partition has at least {@link #MIN_PARTITION_SIZE}
+    * buffers.
+    * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @param numpartitions the desired number of partitions
+    */
+   public BufferMgr(int numbuffers, String policyname, int numpartitions) {
+      int n = Math.max(1, Math.min(numpartitions, numbuffers / MIN_PARTITION_SIZE));
+      this.numbuffers = numbuffers;
+      admission = new AdmissionController(numbuffers);
+      PageArena arena = new PageArena(numbuffers);
+      partitions = new BasicBufferMgr[n];
+      for (int i=0; i<n; i++) {
+         int size = numbuffers / n + ((i < numbuffers % n) ? 1 : 0);
+         partitions[i] = new BasicBufferMgr(size, createPolicy(policyname), arena);
+      }
+   }
+
    /**
     * Pins a buffer to the specified block, potentially
     * waiting until a buffer becomes available.
-    * If no buffer becomes available within a fixed 
-    * time period, then a {@link BufferAbortException} is thrown.
+    * If no buffer becomes available within the maximum
+    * waiting time, then a {@link BufferAbortException} is thrown.
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(Block blk) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pin(blk);
-         }
-         if (buff == null)
-            throw new BufferAbortException();
-         return buff;
-      }
-      catch(InterruptedException e) {
-         throw new BufferAbortException();
-      }
+   public Buffer pin(Block blk) {
+      return pin(blk, null);
    }
-   
+
    /**
-    * Pins a buffer to a new block in the specified file, 
+    * Pins a buffer to the specified block on behalf of a
+    * one-pass scan that uses the specified ring.
+    * If the block is not in the pool, the ring's oldest buffer
+    * is reused when possible; either way, the pin does not
+    * count as a reference for the replacement policy.
+    * A null ring gives the same behavior as {@link #pin(Block)}.
+    * @param blk a reference to a disk block
+    * @param ring the scan's buffer ring, or null
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(Block blk, BufferRing ring) {
+      return pin(partition(blk), new BufferWaiter(blk, null, ring));
+   }
+
+   /**
+    * Pins a buffer to a new block in the specified file,
     * potentially waiting until a buffer becomes available.
-    * If no buffer becomes available within a fixed 
-    * time period, then a {@link BufferAbortException} is thrown.
+    * The block is appended only once a buffer has been chosen
+    * for it, so a pin that is aborted appends nothing.
+    * The partition of the new block depends on its block number,
+    * so the pins of new blocks of the same file are serialized:
+    * the number of the new block is the current size of the file
+    * for as long as the pin holds the file's append lock.
+    * If the lock or a buffer cannot be obtained within the maximum
+    * waiting time, then a {@link BufferAbortException} is thrown.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the page
+    * @return the buffer pinned to that block
+    */
+   public Buffer pinNew(String filename, PageFormatter fmtr) {
+      return pinNew(filename, fmtr, null);
+   }
+
+   /**
+    * Pins a buffer to a new block in the specified file
+    * on behalf of a one-pass scan that uses the specified ring,
+    * as in {@link #pin(Block, BufferRing)}.
     * @param filename the name of the file
     * @param fmtr the formatter used to initialize the page
+    * @param ring the scan's buffer ring, or null
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
+   public Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      ReentrantLock lock = appendLock(filename);
       try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pinNew(filename, fmtr);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pinNew(filename, fmtr);
-         }
-         if (buff == null)
+         if (!lock.tryLock(maxWaitTime, TimeUnit.MILLISECONDS))
             throw new BufferAbortException();
-         return buff;
       }
       catch(InterruptedException e) {
          throw new BufferAbortException();
       }
+      try {
+         FileMgr fm = SimpleDB.fileMgr();
+         Block blk = new Block(filename, fm.size(filename));
+         Buffer buff = pin(partition(blk), new BufferWaiter(blk, fmtr, ring));
+         if (fm.size(filename) <= blk.number()) {
+            unpin(buff);  // a stale buffer of a deleted file held the block
+            throw new RuntimeException("cannot append block " + blk);
+         }
+         return buff;
+      }
+      finally {
+         lock.unlock();
+      }
    }
-   
+
    /**
-    * Unpins the specified buffer. 
+    * Pins buffers to a run of consecutive blocks of a file,
+    * reading the blocks that are not in the pool
+    * with one call to the operating system per {@link #MAX_RUN} blocks.
+    * Each block is read into a spare page, which is then
+    * exchanged with the page of the buffer chosen for it.
+    * The pins are made as in {@link #pin(Block, BufferRing)}
+    * with the specified ring, except that the pins of blocks
+    * that were already in the pool or were read in the run
+    * do not count as references for the replacement policy,
+    * even without a ring: the caller is expected to pin each
+    * block again when it actually uses it.
+    * A block that cannot be given a buffer without waiting
+    * is instead pinned by {@link #pin(Block, BufferRing)}.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks, which must all exist
+    * @param ring the scan's buffer ring, or null
+    * @return the pinned buffers, in block order
+    */
+   public Buffer[] pinRange(String filename, int start, int count, BufferRing ring) {
+      Buffer[] buffs = new Buffer[count];
+      try {
+         for (int off=0; off<count; off+=MAX_RUN)
+            pinRun(filename, start + off, Math.min(MAX_RUN, count - off), ring, buffs, off);
+      }
+      catch(RuntimeException e) {
+         for (Buffer buff : buffs)
+            if (buff != null)
+               unpin(buff);
+         throw e;
+      }
+      return buffs;
+   }
+
+   /**
+    * Reads the blocks of a run that are not in the pool into
+    * unpinned buffers, so that the next pins of those blocks are hits.
+    * If the prefetcher is running, the blocks are read in the
+    * background, unless the prefetcher already has too many
+    * blocks to read, in which case the request is dropped;
+    * otherwise they are read by the calling thread.
+    * Either way, the request never waits for a buffer:
+    * blocks that cannot be given a buffer immediately are skipped.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    * @param ring the scan's buffer ring, or null
+    * @return the request, or null if it was dropped
+    */
+   Prefetcher.Request prefetch(String filename, int start, int count, BufferRing ring) {
+      Prefetcher.Request req = new Prefetcher.Request(filename, start, count, ring);
+      Prefetcher p = prefetcher;
+      if (p != null)
+         return p.submit(req) ? req : null;
+      load(req);
+      return req;
+   }
+
+   /**
+    * Performs a prefetch request.
+    * @param req the request
+    */
+   void load(Prefetcher.Request req) {
+      try {
+         for (int off=0; off<req.count; off+=MAX_RUN)
+            pinRun(req.filename, req.start + off, Math.min(MAX_RUN, req.count - off),
+                   req.ring, null, 0);
+      }
+      finally {
+         req.done = true;
+      }
+   }
+
+   /**
+    * Cancels the prefetch requests for the specified file
+    * that the prefetcher has not performed yet, and waits
+    * until it has finished the request for the file
+    * that it is performing, if any.
+    * @param filename the name of the file
+    */
+   public void cancelPrefetch(String filename) {
+      Prefetcher p = prefetcher;
+      if (p != null)
+         p.cancel(filename);
+   }
+
+   /**
+    * Returns the number of prefetch requests that failed
+    * in the running prefetcher.  A failed request only means that
+    * the scan has to read the blocks itself.
+    * @return the number of failed prefetch requests
+    */
+   public long prefetchFailures() {
+      Prefetcher p = prefetcher;
+      return (p == null) ? 0 : p.failures();
+   }
+
+   /**
+    * Returns true if the prefetcher is running,
+    * so that prefetch requests are performed in the background.
+    * @return true if the prefetcher is running
+    */
+   boolean prefetching() {
+      return prefetcher != null;
+   }
+
+   /**
+    * Returns true if the specified block is in the pool.
+    * @param blk a reference to a disk block
+    * @return true if a buffer holds the block
+    */
+   boolean isResident(Block blk) {
+      return partition(blk).isResident(blk);
+   }
+
+   /**
+    * Starts a background thread that performs prefetch requests
+    * of sequential scans (see {@link ReadAhead}).
+    * At most a quarter of the pool may be waiting to be
+    * read by the thread at any time.
+    * Any previously started prefetcher is stopped.
+    */
+   public synchronized void startPrefetcher() {
+      stopPrefetcher();
+      Prefetcher p = new Prefetcher(this, Math.max(1, numbuffers / 4));
+      p.start();
+      prefetcher = p;
+   }
+
+   /**
+    * Stops the background prefetcher, if it is running.
+    * Later prefetch requests are performed by the scans themselves.
+    */
+   public synchronized void stopPrefetcher() {
+      if (prefetcher != null)
+         prefetcher.shutdown();
+      prefetcher = null;
+   }
+
+   /**
+    * Sets the number of blocks that a sequential scan
+    * reads at once, which is also the initial read-ahead
+    * window of a {@link ReadAhead}.
+    * A size of 1 makes scans read one block at a time.
+    * @param size the number of blocks per read
+    */
+   public void setRunSize(int size) {
+      runSize = Math.max(1, Math.min(size, MAX_RUN));
+   }
+
+   /**
+    * Returns the number of blocks that a sequential scan
+    * should read at once.
+    * @return the number of blocks per read
+    */
+   public int runSize() {
+      return runSize;
+   }
+
+   /**
+    * Unpins the specified buffer.
     * If the buffer's pin count becomes 0,
-    * then the threads on the wait list are notified.
+    * then the buffer is used for the oldest waiting request
+    * of its partition, if any.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      bufferMgr.unpin(buff);
-      if (!buff.isPinned())
-         notifyAll();
+   public void unpin(Buffer buff) {
+      partition(buff.block()).unpin(buff);
    }
-   
+
+   /**
+    * Sets the maximum time that a thread waits for a buffer
+    * or for a reservation before a {@link BufferAbortException}
+    * is thrown.
+    * @param millis the maximum waiting time, in milliseconds
+    */
+   public void setMaxWaitTime(long millis) {
+      maxWaitTime = millis;
+   }
+
+   /**
+    * Returns the histogram of the times that pins
+    * waited for a buffer.
+    * Pins that did not wait are not recorded.
+    * @return the waiting-time histogram
+    */
+   public WaitHistogram waitHistogram() {
+      return waitTimes;
+   }
+
+   /**
+    * Returns the number of pin requests that are
+    * currently waiting for a buffer.
+    * @return the number of waiting requests
+    */
+   public int waiting() {
+      int count = 0;
+      for (BasicBufferMgr part : partitions)
+         count += part.waiting();
+      return count;
+   }
+
+   /**
+    * Reserves between min and max buffers for an operator,
+    * potentially waiting until enough buffers are unreserved.
+    * Requests are admitted in first-come, first-served order.
+    * When fewer than max buffers are unreserved, the request
+    * is granted fewer buffers instead of waiting, so the caller
+    * must check the size of the returned reservation.
+    * A request made while no other reservation is held can be
+    * granted all of the buffers that can be reserved; otherwise a
+    * reservation is limited to half of them.  A minimum larger than
+    * half of them is reduced to that limit.
+    * The reservation only tells the operator how many blocks
+    * to pin at once; the pins themselves are made as usual,
+    * and may wait for a buffer like any other pin.
+    * If the request cannot be admitted within the maximum waiting time,
+    * then a {@link BufferAbortException} is thrown.
+    * @param min the fewest buffers the operator can work with
+    * @param max the most buffers the operator can use
+    * @return the reservation, which the operator must release
+    */
+   public BufferReservation reserve(int min, int max) {
+      return reserve(min, max, false);
+   }
+
+   /**
+    * Reserves between min and max buffers for an operator,
+    * as in {@link #reserve(int, int)}.
+    * A nested request, made on behalf of a transaction that already
+    * holds a reservation, does not wait: waiting could only end when
+    * the transaction's own reservation is released.
+    * It is granted at least its minimum at once.
+    * @param min the fewest buffers the operator can work with
+    * @param max the most buffers the operator can use
+    * @param nested true if the caller already holds a reservation
+    * @return the reservation, which the operator must release
+    */
+   public BufferReservation reserve(int min, int max, boolean nested) {
+      int granted = admission.admit(min, max, nested, maxWaitTime);
+      return new BufferReservation(admission, granted);
+   }
+
+   /**
+    * Returns the number of buffers currently reserved by operators.
+    * @return the number of reserved buffers
+    */
+   public int reserved() {
+      return admission.reserved();
+   }
+
+   /**
+    * Sets the size of the rings returned by {@link #newRing()}.
+    * A size of 0 disables rings, so that every scan
+    * uses the replacement policy.
+    * @param size the default number of buffers in a ring
+    */
+   public void setRingSize(int size) {
+      ringSize = size;
+   }
+
+   /**
+    * Returns a new ring of the default size for a one-pass scan,
+    * or null if rings are disabled.
+    * The ring is limited to a quarter of the pool.
+    * @return a new buffer ring, or null
+    */
+   public BufferRing newRing() {
+      return newRing(Math.min(ringSize, Math.max(1, numbuffers / 4)));
+   }
+
+   /**
+    * Returns a new ring of at least the specified size,
+    * or null if rings are disabled.
+    * The size is rounded up to a multiple of the number of partitions.
+    * A scan that pins several blocks at once, such as a
+    * chunk of a multibuffer product, needs a ring at least
+    * as large as the number of blocks it pins.
+    * @param size the desired number of buffers in the ring
+    * @return a new buffer ring, or null
+    */
+   public BufferRing newRing(int size) {
+      if (ringSize <= 0)
+         return null;
+      int n = partitions.length;
+      int rounded = (Math.max(1, size) + n - 1) / n * n;
+      return new BufferRing(rounded);
+   }
+
+   /**
+    * Returns a new ring for a sequential scan of a file
+    * having the specified number of blocks,
+    * or null if the file is at most a quarter of the pool,
+    * in which case the scan can safely use the replacement policy.
+    * @param filesize the number of blocks in the scanned file
+    * @return a new buffer ring, or null
+    */
+   public BufferRing newRingFor(int filesize) {
+      if (filesize <= numbuffers / 4)
+         return null;
+      return newRing();
+   }
+
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Flushes the dirty buffers modified by the specified transaction,
+    * and forces the files that the transaction modified to disk.
+    * Only the buffers recorded as modified by the transaction
+    * are examined, and they are written in order of
+    * file name and block number, so that the writes to
+    * each file are sequential.
+    * The file manager's scheduler is plugged while the
+    * buffers are written, so that it can merge consecutive blocks.
+    * Each modified file is then forced once, which also makes
+    * durable the transaction's blocks that were written earlier,
+    * when their buffers were replaced or cleaned in the background.
+    * Before any buffer is written, the log is flushed once,
+    * without holding a partition's lock, so that concurrent
+    * commits can share the force of the log.
     * @param txnum the transaction's id number
     */
    public void flushAll(int txnum) {
-      bufferMgr.flushAll(txnum);
+      SortedMap<Block,BasicBufferMgr> blks = new TreeMap<Block,BasicBufferMgr>(BLOCK_ORDER);
+      for (BasicBufferMgr part : partitions)
+         for (Block blk : part.modifiedBlocks(txnum))
+            blks.put(blk, part);
+      if (!blks.isEmpty())
+         SimpleDB.logMgr().flushAll();
+      FileMgr fm = SimpleDB.fileMgr();
+      fm.plug();
+      try {
+         for (Map.Entry<Block,BasicBufferMgr> e : blks.entrySet())
+            e.getValue().flush(e.getKey(), txnum);
+      }
+      finally {
+         fm.unplug();
+      }
+      Set<String> files = new TreeSet<String>();
+      for (BasicBufferMgr part : partitions) {
+         part.forgetModifications(txnum);
+         files.addAll(part.takeModifiedFiles(txnum));
+      }
+      for (String filename : files)
+         fm.force(filename);
+   }
+
+   /**
+    * Removes the blocks of the specified file from the pool
+    * without writing them, because the file is about to be deleted.
+    * Pending prefetch requests for the file are cancelled first,
+    * so that the prefetcher does not read the file after it is deleted.
+    * Pinned buffers are left alone, so the file's scans
+    * must have been closed.
+    * @param filename the name of the file
+    */
+   public void discard(String filename) {
+      cancelPrefetch(filename);
+      appendLocks.remove(filename);
+      for (BasicBufferMgr part : partitions)
+         part.discard(filename);
+   }
+
+   /**
+    * Starts a background thread that writes unpinned dirty buffers
+    * whenever the fraction of dirty buffers in a partition
+    * exceeds the high-water mark, until the fraction
+    * drops to the low-water mark.
+    * Any previously started flusher is stopped.
+    * @param highWater the dirty ratio at which writing starts
+    * @param lowWater the dirty ratio at which writing stops
+    */
+   public synchronized void startFlusher(double highWater, double lowWater) {
+      stopFlusher();
+      flusher = new BufferFlusher(partitions, highWater, lowWater);
+      flusher.start();
+   }
+   
+   /**
+    * Stops the background flusher, if it is running.
+    */
+   public synchronized void stopFlusher() {
+      if (flusher != null)
+         flusher.shutdown();
+      flusher = null;
+   }
+   
+   /**
+    * Returns the fraction of buffers that are dirty.
+    * @return the dirty ratio of the pool
+    */
+   public double dirtyRatio() {
+      double total = 0;
+      for (BasicBufferMgr part : partitions)
+         total += part.dirtyRatio();
+      return total / partitions.length;
+   }
+   
+   /**
+    * Returns the number of dirty buffers that a pinning thread
+    * had to write because they were chosen for replacement.
+    * @return the number of eviction writes
+    */
+   public long evictionWrites() {
+      long count = 0;
+      for (BasicBufferMgr part : partitions)
+         count += part.evictionWrites();
+      return count;
+   }
+   
+   /**
+    * Returns the number of dirty buffers written
+    * by the background flusher.
+    * @return the number of background writes
+    */
+   public long backgroundWrites() {
+      long count = 0;
+      for (BasicBufferMgr part : partitions)
+         count += part.backgroundWrites();
+      return count;
    }
    
    /**
     * Returns the number of available (ie unpinned) buffers.
+    * When the pool is partitioned, the value is the number of
+    * consecutive blocks that can be pinned without waiting,
+    * which depends on the partition having the fewest available buffers.
     * @return the number of available buffers
     */
    public int available() {
-      return bufferMgr.available();
+      if (partitions.length == 1)
+         return partitions[0].available();
+      int min = Integer.MAX_VALUE;
+      for (BasicBufferMgr part : partitions)
+         min = Math.min(min, part.available());
+      return min * partitions.length;
    }
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+
+   /**
+    * Returns the blocks in the pool, hottest first.
+    * A block pinned at least twice is hotter than a block
+    * pinned once, and otherwise the block whose earlier
+    * pin is more recent is hotter.
+    * Blocks pinned only by one-pass scans are omitted.
+    * @return the resident blocks ranked by heat
+    */
+   public List<Block> hotBlocks() {
+      List<BlockHeat> heats = new ArrayList<BlockHeat>();
+      for (BasicBufferMgr part : partitions)
+         part.addHeat(heats);
+      Collections.sort(heats);
+      List<Block> blks = new ArrayList<Block>(heats.size());
+      for (BlockHeat h : heats)
+         blks.add(h.block());
+      return blks;
+   }
+
+   /**
+    * Returns the number of buffers in the pool.
+    * @return the size of the pool
+    */
+   public int size() {
+      return numbuffers;
+   }
+
+   /**
+    * Returns the number of partitions of the buffer pool.
+    * @return the number of partitions
+    */
+   public int numPartitions() {
+      return partitions.length;
+   }
+
+   /**
+    * Returns the fraction of pins that found their
+    * block already in the pool.
+    * @return the buffer hit rate, or 0 if nothing has been pinned
+    */
+   public double hitRate() {
+      long hits = 0, total = 0;
+      for (BasicBufferMgr part : partitions) {
+         hits  += part.hits();
+         total += part.hits() + part.misses();
+      }
+      return (total == 0) ? 0 : (double) hits / total;
+   }
+
+   /**
+    * Returns the number of pins that had to read
+    * their block from disk.
+    * @return the number of buffer misses
+    */
+   public long misses() {
+      long misses = 0;
+      for (BasicBufferMgr part : partitions)
+         misses += part.misses();
+      return misses;
+   }
+
+   private ReentrantLock appendLock(String filename) {
+      ReentrantLock lock = appendLocks.get(filename);
+      if (lock == null) {
+         appendLocks.putIfAbsent(filename, new ReentrantLock());
+         lock = appendLocks.get(filename);
+      }
+      return lock;
+   }
+
+   private BasicBufferMgr partition(Block blk) {
+      return partitions[partitionIndex(blk)];
+   }
+
+   private int partitionIndex(Block blk) {
+      int n = partitions.length;
+      if (n == 1)
+         return 0;
+      return Math.floorMod(blk.fileName().hashCode() + blk.number(), n);
+   }
+
+   /**
+    * Pins a run of at most MAX_RUN blocks into the specified
+    * positions of the buffer array.
+    * If the array is null, the run is only loaded: the blocks
+    * that can be given a buffer without waiting are put in
+    * unpinned buffers, and the others are skipped.
+    * The write counts of the partitions are taken before the read,
+    * so that a block whose buffer may have been written since
+    * is read again instead of being taken from the spare page.
+    */
+   private void pinRun(String filename, int start, int count, BufferRing ring,
+                       Buffer[] buffs, int off) {
+      long[] writes = new long[partitions.length];
+      for (int i=0; i<partitions.length; i++)
+         writes[i] = partitions[i].writes();
+      int missing = 0;
+      for (int i=0; i<count; i++) {
+         Block blk = new Block(filename, start + i);
+         if (!partition(blk).isResident(blk))
+            missing++;
+      }
+      Page[] pages = null;
+      int numread = 0;
+      if (missing > ((buffs == null) ? 0 : 1)) {
+         pages = runPages.poll();
+         if (pages == null)
+            pages = newRunPages();
+         numread = Page.read(new Block(filename, start), pages, count);
+      }
+      try {
+         for (int i=0; i<count; i++) {
+            Block blk = new Block(filename, start + i);
+            int p = partitionIndex(blk);
+            Page[] read = (i < numread) ? pages : null;
+            if (buffs == null) {
+               partitions[p].load(blk, read, i, writes[p], ring);
+               continue;
+            }
+            Buffer buff = partitions[p].pinLoaded(blk, read, i, writes[p], ring);
+            if (buff == null)
+               buff = pin(partitions[p], new BufferWaiter(blk, null, ring));
+            buffs[off + i] = buff;
+         }
+      }
+      finally {
+         if (pages != null)
+            runPages.offer(pages);
+      }
+   }
+
+   private Page[] newRunPages() {
+      PageArena arena = new PageArena(MAX_RUN);
+      Page[] pages = new Page[MAX_RUN];
+      for (int i=0; i<MAX_RUN; i++)
+         pages[i] = arena.newPage();
+      return pages;
+   }
+
+   /**
+    * Performs the pin request in the specified partition,
+    * waiting in the partition's queue if necessary.
+    */
+   private Buffer pin(BasicBufferMgr part, BufferWaiter w) {
+      Buffer buff = part.pinOrWait(w);
+      if (buff != null)
+         return buff;
+      long start = System.nanoTime();
+      try {
+         buff = w.await(maxWaitTime);
+      }
+      catch(InterruptedException e) {
+         if (!part.cancel(w))
+            part.unpin(w.granted());
+         throw new BufferAbortException();
+      }
+      if (buff == null && !part.cancel(w))
+         buff = w.granted();  // granted just after the time ran out
+      waitTimes.record(System.nanoTime() - start);
+      if (buff == null)
+         throw new BufferAbortException();
+      return buff;
+   }
+
+   /**
+    * Creates the replacement policy having the specified name.
+    * @param policyname the name of the policy
+    * @return a new policy object
+    */
+   private static ReplacementPolicy createPolicy(String policyname) {
+      if (policyname.equals(ReplacementPolicy.LRU))
+         return new LRUPolicy();
+      else if (policyname.equals(ReplacementPolicy.CLOCK))
+         return new ClockPolicy();
+      else if (policyname.equals(ReplacementPolicy.LRU_K))
+         return new LRUKPolicy();
+      else if (policyname.equals(ReplacementPolicy.TWO_Q))
+         return new TwoQPolicy();
+      else
+         throw new RuntimeException("unknown replacement policy " + policyname);
    }
 }
@@ -0,0 +1,51 @@
+package simpledb.buffer;
+
+/**
+ * A number of buffers reserved by a multi-buffer operator,
+ * such as a multibuffer product or a sort.
+ * The operator decides how many blocks to keep pinned
+ * at once from the size of its reservation, and releases
+ * the reservation when it is closed.
+ * The reservation does not hold particular buffers: the operator
+ * pins its blocks like any other caller, and its pins can still
+ * wait for buffers that ordinary pins are using.
+ * Reservations are obtained from
+ * {@link BufferMgr#reserve(int, int)}.
+ */
+public class BufferReservation {
+   private AdmissionController controller;
+   private int size;
+   private boolean released = false;
+
+   BufferReservation(AdmissionController controller, int size) {
+      this.controller = controller;
+      this.size = size;
+   }
+
+   /**
+    * Returns the number of reserved buffers.
+    * @return the size of the reservation
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Returns true if the reservation has been released.
+    * @return true if the reservation was released
+    */
+   public synchronized boolean isReleased() {
+      return released;
+   }
+
+   /**
+    * Returns the reserved buffers to the buffer manager.
+    * Releasing a reservation more than once has no effect.
+    */
+   public synchronized void release() {
+      if (!released) {
+         released = true;
+         controller.release(size);
+      }
+   }
+}
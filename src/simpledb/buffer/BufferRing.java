@@ -0,0 +1,74 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+
+/**
+ * A small private ring of buffers that a large sequential
+ * scan reuses, so that the scan does not push the
+ * frequently-used blocks out of the pool.
+ * A scan that pins blocks through a ring is a "one-pass" scan:
+ * its pins are not counted as references by the
+ * {@link ReplacementPolicy}, and when a block is read in,
+ * the buffer that the ring read in the longest time ago
+ * is reused instead of a buffer chosen by the policy,
+ * provided that the buffer is unpinned, still holds the
+ * block the ring read into it, and has not since been
+ * pinned by a normal scan.
+ * The scan therefore occupies at most about
+ * {@link #size()} buffers of the pool.
+ * <p>
+ * The size of a ring is a multiple of the number of
+ * partitions, so that for a sequential scan the buffer
+ * being reused belongs to the same partition as the block
+ * being read.
+ * A ring holds no pins, and so need not be closed.
+ * A ring belongs to a single scan, but may also be used by
+ * the {@link Prefetcher} that reads ahead of the scan,
+ * so its methods are synchronized.
+ * Rings are created by {@link BufferMgr#newRing(int)}.
+ */
+public class BufferRing {
+   private Buffer[] buffs;
+   private Block[] blks;
+   private int next = 0;
+
+   BufferRing(int size) {
+      buffs = new Buffer[size];
+      blks  = new Block[size];
+   }
+
+   /**
+    * Returns the number of buffers in the ring.
+    * @return the size of the ring
+    */
+   public int size() {
+      return buffs.length;
+   }
+
+   /**
+    * Returns the ring's oldest buffer if it can be reused
+    * for a block of the specified partition, or null otherwise.
+    * The method is called while holding the partition's lock.
+    * @param part the partition of the block to be read
+    * @return a reusable buffer of the partition, or null
+    */
+   synchronized Buffer recycle(BasicBufferMgr part) {
+      Buffer buff = buffs[next];
+      if (buff == null || buff.owner() != part)
+         return null;
+      if (buff.isPinned() || buff.pinTime(1) != 0 || !blks[next].equals(buff.block()))
+         return null;
+      return buff;
+   }
+
+   /**
+    * Adds a buffer that has just been assigned a block
+    * to the ring, in place of the ring's oldest buffer.
+    * @param buff the newly assigned buffer
+    */
+   synchronized void add(Buffer buff) {
+      buffs[next] = buff;
+      blks[next] = buff.block();
+      next = (next + 1) % buffs.length;
+   }
+}
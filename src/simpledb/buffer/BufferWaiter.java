@@ -0,0 +1,102 @@
+package simpledb.buffer;
+
+import simpledb.file.*;
+
+/**
+ * A pin request that is waiting for a buffer.
+ * Waiting requests are queued by their {@link BasicBufferMgr}
+ * in arrival order.  When a buffer is unpinned, the unpinning
+ * thread performs the pin for the oldest waiting request
+ * and wakes up only that request's thread.
+ */
+class BufferWaiter {
+   private Block blk;
+   private PageFormatter fmtr;
+   private BufferRing ring;
+   private Buffer buff = null;
+   private RuntimeException failure = null;
+
+   /**
+    * Creates a request to pin the specified block.
+    * @param blk the requested block
+    * @param fmtr the formatter of a newly appended block, or null
+    * @param ring the scan's buffer ring, or null
+    */
+   BufferWaiter(Block blk, PageFormatter fmtr, BufferRing ring) {
+      this.blk = blk;
+      this.fmtr = fmtr;
+      this.ring = ring;
+   }
+
+   /**
+    * Returns the requested block.
+    * @return the requested block
+    */
+   Block block() {
+      return blk;
+   }
+
+   /**
+    * Tries to perform the request in the specified partition.
+    * The method is called while holding the partition's lock.
+    * @param part the partition of the requested block
+    * @return the pinned buffer, or null if no buffer is available
+    */
+   Buffer tryPin(BasicBufferMgr part) {
+      if (fmtr == null)
+         return part.pin(blk, ring);
+      else
+         return part.pinNew(blk, fmtr, ring);
+   }
+
+   /**
+    * Completes the request with the specified buffer,
+    * and wakes up the waiting thread.
+    * @param buff the buffer pinned for the request
+    */
+   synchronized void grant(Buffer buff) {
+      this.buff = buff;
+      notify();
+   }
+
+   /**
+    * Completes the request with an exception,
+    * which will be thrown in the waiting thread.
+    * @param e the exception raised while performing the request
+    */
+   synchronized void fail(RuntimeException e) {
+      failure = e;
+      notify();
+   }
+
+   /**
+    * Waits until the request is completed,
+    * or until the specified time has elapsed.
+    * @param maxtime the maximum waiting time, in milliseconds
+    * @return the granted buffer, or null if the time elapsed
+    * @throws InterruptedException if the thread was interrupted
+    */
+   synchronized Buffer await(long maxtime) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + maxtime;
+      while (buff == null && failure == null) {
+         long remaining = deadline - System.currentTimeMillis();
+         if (remaining <= 0)
+            return null;
+         wait(remaining);
+      }
+      if (failure != null)
+         throw failure;
+      return buff;
+   }
+
+   /**
+    * Returns the granted buffer, or null if the request
+    * has not been granted.
+    * @return the granted buffer
+    */
+   synchronized Buffer granted() {
+      if (failure != null)
+         throw failure;
+      return buff;
+   }
+}
@@ -0,0 +1,223 @@
+package simpledb.buffer;
+
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A background thread that lets the buffer pool survive
+ * a restart.
+ * The thread periodically saves the list of resident blocks,
+ * ranked by heat, in the file {@link #HOT_FILE} of the
+ * database directory, and the list is saved once more
+ * when the thread is {@link #shutdown() shut down}.
+ * When the thread starts, it first reads the list saved by
+ * the previous run and preloads the hottest blocks into the pool,
+ * so that the blocks that were hot before the restart need not
+ * be faulted in one at a time by the first transactions.
+ * The preloaded blocks are read in order of file name and
+ * block number, and each run of consecutive blocks is read
+ * with a single call to the operating system.
+ * At most three quarters of the pool are preloaded,
+ * leaving room for the blocks of the transactions
+ * that run in the meantime.
+ */
+public class BufferWarmer extends Thread {
+   /**
+    * The name of the file that holds the list of hot blocks.
+    */
+   public static final String HOT_FILE = "simpledb.hot";
+
+   private static final int HOT_MAGIC = 0x53444254; // "SDBT"
+
+   private static final Comparator<Block> BLOCK_ORDER = new Comparator<Block>() {
+      public int compare(Block b1, Block b2) {
+         int result = b1.fileName().compareTo(b2.fileName());
+         return (result != 0) ? result : Integer.compare(b1.number(), b2.number());
+      }
+   };
+
+   private BufferMgr bm;
+   private File hotfile;
+   private long interval;
+   private volatile boolean stopped = false;
+   private volatile int preloaded = 0;
+
+   /**
+    * Creates a warmer for the specified buffer manager.
+    * The list of hot blocks is kept in the directory
+    * of the database, which it gets from the {@link FileMgr}
+    * of the class {@link SimpleDB}.
+    * The thread is a daemon, and so does not keep
+    * the server running.
+    * @param bm the buffer manager
+    * @param interval the time between saves, in milliseconds
+    */
+   public BufferWarmer(BufferMgr bm, long interval) {
+      super("buffer warmer");
+      this.bm = bm;
+      this.interval = interval;
+      hotfile = new File(SimpleDB.fileMgr().directory(), HOT_FILE);
+      setDaemon(true);
+   }
+
+   /**
+    * Stops the thread and saves the list of hot blocks.
+    * The thread is not interrupted, because interrupting
+    * a thread during a read would close the file's channel.
+    * The method is called while the JVM shuts down, so a
+    * failure to save is ignored: the list saved earlier, if any,
+    * is left in place, and the next run preloads from it.
+    */
+   public void shutdown() {
+      stopped = true;
+      try {
+         save();
+      }
+      catch (RuntimeException e) {
+         // keep the previous list
+      }
+   }
+
+   /**
+    * Returns the number of blocks read by the preload.
+    * @return the number of preloaded blocks
+    */
+   public int preloaded() {
+      return preloaded;
+   }
+
+   public void run() {
+      preload();
+      try {
+         while (!stopped) {
+            Thread.sleep(interval);
+            if (stopped)
+               break;
+            try {
+               save();
+            }
+            catch (RuntimeException e) {
+               // keep the previous list, and try again later
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         // the warmer has been stopped
+      }
+   }
+
+   /**
+    * Writes the current list of hot blocks.
+    * The list is written to a separate file that then
+    * replaces the old list, so that a crash while saving
+    * leaves the old list intact; if the list cannot be
+    * written, the separate file is deleted.
+    * Blocks of temporary files are omitted, because those
+    * files are deleted when the database restarts.
+    */
+   public synchronized void save() {
+      File tmp = new File(hotfile.getPath() + ".new");
+      try {
+         DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(tmp)));
+         try {
+            List<Block> blks = bm.hotBlocks();
+            out.writeInt(HOT_MAGIC);
+            for (Block blk : blks) {
+               if (blk.fileName().startsWith("temp"))
+                  continue;
+               out.writeUTF(blk.fileName());
+               out.writeInt(blk.number());
+            }
+            out.writeUTF("");  // end of list
+         }
+         finally {
+            out.close();
+         }
+         Files.move(tmp.toPath(), hotfile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (IOException e) {
+         tmp.delete();
+         throw new RuntimeException("cannot write " + hotfile);
+      }
+   }
+
+   /**
+    * Reads the list of hot blocks saved by the previous run.
+    * A missing or damaged list is treated as empty.
+    * @return the saved blocks, hottest first
+    */
+   private List<Block> load() {
+      List<Block> blks = new ArrayList<Block>();
+      if (!hotfile.exists())
+         return blks;
+      try {
+         DataInputStream in = new DataInputStream(
+               new BufferedInputStream(new FileInputStream(hotfile)));
+         try {
+            if (in.readInt() != HOT_MAGIC)
+               return blks;
+            for (String fname = in.readUTF(); !fname.isEmpty(); fname = in.readUTF())
+               blks.add(new Block(fname, in.readInt()));
+         }
+         finally {
+            in.close();
+         }
+      }
+      catch (IOException e) {
+         // keep the blocks read so far
+      }
+      return blks;
+   }
+
+   /**
+    * Reads the hottest saved blocks into the pool, in order of
+    * file name and block number.
+    * Each run of consecutive blocks is read with a single
+    * multi-block read, and each block is then pinned and unpinned
+    * once, so that it counts as referenced.
+    * A block that no longer exists is skipped, and the preload
+    * stops if a buffer cannot be had.
+    */
+   private void preload() {
+      List<Block> blks = load();
+      int max = bm.size() - bm.size() / 4;
+      if (blks.size() > max)
+         blks = blks.subList(0, max);
+      Collections.sort(blks, BLOCK_ORDER);
+      FileMgr fm = SimpleDB.fileMgr();
+      File dir = fm.directory();
+      String fname = null;
+      int filesize = 0;
+      int i = 0;
+      while (i < blks.size() && !stopped) {
+         Block first = blks.get(i);
+         if (!first.fileName().equals(fname)) {
+            fname = first.fileName();
+            filesize = new File(dir, fname).exists() ? fm.size(fname) : 0;
+         }
+         int count = 1;
+         while (i + count < blks.size() && count < BufferMgr.MAX_RUN
+                && blks.get(i + count).equals(new Block(fname, first.number() + count)))
+            count++;
+         count = Math.min(count, filesize - first.number());
+         i += Math.max(count, 1);
+         if (count <= 0)
+            continue;
+         try {
+            Buffer[] buffs = bm.pinRange(fname, first.number(), count, null);
+            for (int k=0; k<count; k++) {
+               bm.unpin(bm.pin(buffs[k].block()));
+               bm.unpin(buffs[k]);
+            }
+         }
+         catch (BufferAbortException e) {
+            return;
+         }
+         preloaded += count;
+      }
+   }
+}
@@ -0,0 +1,50 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The clock (second-chance) replacement policy.
+ * The buffers are arranged in a circle, and each has a
+ * reference bit that is set whenever the buffer is pinned.
+ * To choose a buffer, a clock hand sweeps around the circle,
+ * clearing the reference bits it passes,
+ * and stops at the first unpinned buffer whose bit is already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+   private List<Buffer> ring = new ArrayList<Buffer>();
+   private Map<Buffer,Integer> positions = new IdentityHashMap<Buffer,Integer>();
+   private BitSet refbits = new BitSet();
+   private int hand = 0;
+
+   public void bufferAdded(Buffer buff) {
+      positions.put(buff, ring.size());
+      ring.add(buff);
+   }
+
+   public void pinned(Buffer buff) {
+      refbits.set(positions.get(buff));
+   }
+
+   public void pinnedByScan(Buffer buff) {}
+
+   public void unpinned(Buffer buff) {}
+
+   public Buffer chooseUnpinnedBuffer() {
+      // two sweeps clear every reference bit,
+      // so an unpinned buffer must be found by then
+      for (int i=0; i<=2*ring.size(); i++) {
+         Buffer buff = ring.get(hand);
+         int pos = hand;
+         hand = (hand + 1) % ring.size();
+         if (buff.isPinned())
+            continue;
+         if (refbits.get(pos))
+            refbits.clear(pos);
+         else {
+            refbits.clear(pos);
+            return buff;
+         }
+      }
+      return null;
+   }
+}
@@ -0,0 +1,104 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The LRU-K replacement policy.
+ * The policy replaces the unpinned buffer whose K-th most
+ * recent pin is the oldest.
+ * A buffer whose block has been pinned fewer than K times
+ * is treated as having an infinitely old K-th pin,
+ * and ties among such buffers are broken by plain LRU.
+ * Blocks that are pinned once, such as those read by a
+ * table scan, are therefore replaced before blocks that
+ * are pinned repeatedly, such as catalog and index root blocks.
+ * The pin times are taken from the history kept by each {@link Buffer}.
+ * The unpinned buffers are kept in a sorted set, ordered by
+ * the pin times they had when they were unpinned, so that
+ * choosing a buffer takes logarithmic time.
+ */
+public class LRUKPolicy implements ReplacementPolicy {
+   /**
+    * An unpinned buffer, with the pin times
+    * that order it among the others.
+    */
+   private static class Entry implements Comparable<Entry> {
+      final Buffer buff;
+      final long kth, last, seq;
+
+      Entry(Buffer buff, long kth, long last, long seq) {
+         this.buff = buff;
+         this.kth = kth;
+         this.last = last;
+         this.seq = seq;
+      }
+
+      public int compareTo(Entry e) {
+         if (kth != e.kth)
+            return Long.compare(kth, e.kth);
+         if (last != e.last)  // in particular, both are "infinitely" old
+            return Long.compare(last, e.last);
+         return Long.compare(seq, e.seq);
+      }
+   }
+
+   private int k;
+   private TreeSet<Entry> unpinned = new TreeSet<Entry>();
+   private Map<Buffer,Entry> entries = new HashMap<Buffer,Entry>();
+   private long nextSeq = 0;
+
+   /**
+    * Creates an LRU-2 policy.
+    */
+   public LRUKPolicy() {
+      this(2);
+   }
+
+   /**
+    * Creates an LRU-K policy for the specified value of K.
+    * @param k the number of pins to consider, at most {@link Buffer#HISTORY_SIZE}
+    */
+   public LRUKPolicy(int k) {
+      if (k < 1 || k > Buffer.HISTORY_SIZE)
+         throw new RuntimeException("unsupported LRU-K value " + k);
+      this.k = k;
+   }
+
+   public void bufferAdded(Buffer buff) {
+      add(buff);
+   }
+
+   public void pinned(Buffer buff) {
+      remove(buff);
+   }
+
+   public void pinnedByScan(Buffer buff) {
+      remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      add(buff);
+   }
+
+   public Buffer chooseUnpinnedBuffer() {
+      Entry e = unpinned.pollFirst();
+      if (e == null)
+         return null;
+      entries.remove(e.buff);
+      return e.buff;
+   }
+
+   private void add(Buffer buff) {
+      if (entries.containsKey(buff))
+         return;
+      Entry e = new Entry(buff, buff.pinTime(k), buff.pinTime(1), nextSeq++);
+      entries.put(buff, e);
+      unpinned.add(e);
+   }
+
+   private void remove(Buffer buff) {
+      Entry e = entries.remove(buff);
+      if (e != null)
+         unpinned.remove(e);
+   }
+}
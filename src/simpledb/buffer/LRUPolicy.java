@@ -0,0 +1,38 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The least-recently-used replacement policy.
+ * The unpinned buffers are kept in the order in which
+ * they were unpinned, and the buffer that has been
+ * unpinned the longest is replaced.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+   private Set<Buffer> unpinned = new LinkedHashSet<Buffer>();
+
+   public void bufferAdded(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   public void pinned(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   public void pinnedByScan(Buffer buff) {
+      unpinned.remove(buff);
+   }
+
+   public void unpinned(Buffer buff) {
+      unpinned.add(buff);
+   }
+
+   public Buffer chooseUnpinnedBuffer() {
+      Iterator<Buffer> iter = unpinned.iterator();
+      if (!iter.hasNext())
+         return null;
+      Buffer buff = iter.next();
+      iter.remove();
+      return buff;
+   }
+}
@@ -0,0 +1,167 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A background thread that reads blocks ahead of sequential scans.
+ * Each request names a run of blocks, which the thread reads
+ * into unpinned buffers with multi-block reads, so that the scan
+ * finds the blocks in the pool when it reaches them,
+ * instead of waiting for each read.
+ * The number of blocks waiting to be read is limited, and a request
+ * that would exceed the limit is dropped, so that prefetching
+ * cannot fill the pool with blocks that no scan has reached yet.
+ * The requests for a file are cancelled when its scans close
+ * or the file is deleted.
+ * A request that fails is counted and otherwise ignored,
+ * since the scan then reads the blocks itself.
+ */
+class Prefetcher extends Thread {
+   private static final long POLL_TIME = 100; // milliseconds
+
+   /**
+    * A request to read a run of blocks.
+    */
+   static class Request {
+      final String filename;
+      final int start, count;
+      final BufferRing ring;
+      volatile boolean done = false;
+
+      Request(String filename, int start, int count, BufferRing ring) {
+         this.filename = filename;
+         this.start = start;
+         this.count = count;
+         this.ring = ring;
+      }
+
+      /**
+       * Returns true if the specified block is one of the requested blocks.
+       * @param blknum a block number of the requested file
+       * @return true if the request covers the block
+       */
+      boolean covers(int blknum) {
+         return blknum >= start && blknum < start + count;
+      }
+   }
+
+   private BufferMgr bm;
+   private int maxOutstanding;
+   private int outstanding = 0;
+   private Queue<Request> queue = new ArrayDeque<Request>();
+   private Request current = null;
+   private boolean stopped = false;
+   private AtomicLong failures = new AtomicLong(0);
+
+   /**
+    * Creates a prefetcher for the specified buffer manager.
+    * The thread is a daemon, and so does not keep
+    * the server running.
+    * @param bm the buffer manager
+    * @param maxOutstanding the most blocks that may be waiting to be read
+    */
+   Prefetcher(BufferMgr bm, int maxOutstanding) {
+      super("buffer prefetcher");
+      this.bm = bm;
+      this.maxOutstanding = maxOutstanding;
+      setDaemon(true);
+   }
+
+   /**
+    * Adds the request to the queue, unless the blocks already
+    * waiting to be read plus those requested exceed the limit.
+    * @param req the request
+    * @return true if the request was queued
+    */
+   synchronized boolean submit(Request req) {
+      if (stopped || outstanding + req.count > maxOutstanding)
+         return false;
+      outstanding += req.count;
+      queue.add(req);
+      notifyAll();
+      return true;
+   }
+
+   /**
+    * Removes the queued requests for the specified file,
+    * and waits until the request for the file that
+    * the thread is performing, if any, has finished.
+    * Afterwards the thread does not access the file,
+    * unless it is asked to again.
+    * @param filename the name of the file
+    */
+   synchronized void cancel(String filename) {
+      Iterator<Request> iter = queue.iterator();
+      while (iter.hasNext()) {
+         Request req = iter.next();
+         if (req.filename.equals(filename)) {
+            iter.remove();
+            outstanding -= req.count;
+         }
+      }
+      try {
+         while (current != null && current.filename.equals(filename))
+            wait();
+      }
+      catch (InterruptedException e) {
+         // give up waiting; the request is harmless to a live file
+      }
+   }
+
+   /**
+    * Returns the number of requests that failed.
+    * @return the number of failed requests
+    */
+   long failures() {
+      return failures.get();
+   }
+
+   /**
+    * Asks the thread to stop after its current request.
+    * The thread is not interrupted, because interrupting
+    * a thread during a read would close the file's channel.
+    * Requests still in the queue are not performed.
+    */
+   synchronized void shutdown() {
+      stopped = true;
+      queue.clear();
+      outstanding = 0;
+      notifyAll();
+   }
+
+   public void run() {
+      try {
+         Request req;
+         while ((req = next()) != null) {
+            try {
+               bm.load(req);
+            }
+            catch(RuntimeException e) {
+               // the scan reads the blocks itself
+               failures.incrementAndGet();
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         // the prefetcher has been stopped
+      }
+   }
+
+   /**
+    * Finishes the current request, and waits for the next one.
+    * @return the next request, or null if the thread has been stopped
+    */
+   private synchronized Request next() throws InterruptedException {
+      if (current != null)
+         outstanding = Math.max(0, outstanding - current.count);
+      current = null;
+      notifyAll();
+      while (queue.isEmpty() && !stopped)
+         wait(POLL_TIME);
+      if (stopped)
+         return null;
+      current = queue.poll();
+      return current;
+   }
+}
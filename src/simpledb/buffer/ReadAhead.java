@@ -0,0 +1,109 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+
+/**
+ * Reads ahead of one scan of a file, once the scan
+ * is seen to move through the file sequentially.
+ * The scan reports each block it moves to.
+ * After two consecutive blocks, the next window of blocks is
+ * requested from the buffer manager's prefetcher, and each
+ * time the scan gets halfway through the blocks requested
+ * so far, the following window is requested, so that the
+ * blocks are read while the scan processes the earlier ones.
+ * <p>
+ * The window starts at {@link BufferMgr#runSize()} blocks
+ * and doubles with each request, up to a cap: at most
+ * {@link #MAX_WINDOW} blocks, at most half of the scan's ring
+ * (so that the ring does not recycle blocks before the scan
+ * reaches them), and otherwise at most an eighth of the pool.
+ * If the scan reaches a block that was prefetched but is no
+ * longer in the pool, the prefetched blocks are being replaced
+ * before they are used, and the window is halved.
+ * A block that is not the successor of the previous one
+ * ends the sequential run, and read-ahead starts over.
+ * <p>
+ * When the prefetcher is not running, each window is instead
+ * read by the scan itself when it reaches the window,
+ * which still reads the window with a few large reads.
+ * Read-ahead is disabled when the run size is 1.
+ * The scan calls {@link #close()} when it closes, so that
+ * the prefetcher does not read blocks that no scan will use.
+ */
+public class ReadAhead {
+   /**
+    * The largest number of blocks requested at once.
+    */
+   public static final int MAX_WINDOW = 64;
+
+   private BufferMgr bm = SimpleDB.bufferMgr();
+   private String filename;
+   private BufferRing ring;
+   private int last = -2, end = 0, window = 0;
+   private Prefetcher.Request pending = null;
+   private boolean requested = false;
+
+   /**
+    * Creates the read-ahead state of a scan of the specified file.
+    * @param filename the name of the scanned file
+    * @param ring the scan's buffer ring, or null
+    */
+   public ReadAhead(String filename, BufferRing ring) {
+      this.filename = filename;
+      this.ring = ring;
+   }
+
+   /**
+    * Records that the scan is about to pin the specified block,
+    * and requests the next window of blocks if it is time to.
+    * @param blknum the number of the block
+    * @param filesize the number of blocks in the file
+    */
+   public void moveTo(int blknum, int filesize) {
+      boolean sequential = (blknum == last + 1);
+      last = blknum;
+      if (!sequential || bm.runSize() <= 1) {
+         window = 0;
+         end = blknum + 1;
+         pending = null;
+         return;
+      }
+      if (pending != null && pending.done && pending.covers(blknum)
+            && !bm.isResident(new Block(filename, blknum)))
+         window = Math.max(1, window / 2);  // prefetched blocks are being replaced
+      boolean async = bm.prefetching();
+      int trigger = async ? end - window / 2 : end;
+      if (blknum < trigger || end >= filesize)
+         return;
+      int start = Math.max(end, async ? blknum + 1 : blknum);
+      window = Math.min((window == 0) ? bm.runSize() : window * 2, cap());
+      int count = Math.min(window, filesize - start);
+      if (count <= 0)
+         return;
+      Prefetcher.Request req = bm.prefetch(filename, start, count, ring);
+      if (req != null) {
+         pending = req;
+         requested = true;
+         end = start + count;
+      }
+   }
+
+   /**
+    * Cancels the scan's prefetch requests that have not
+    * been performed yet, because the scan is closing.
+    * Requests of other scans of the same file are cancelled
+    * as well; those scans then read the blocks themselves.
+    */
+   public void close() {
+      if (requested)
+         bm.cancelPrefetch(filename);
+      requested = false;
+      pending = null;
+   }
+
+   private int cap() {
+      int cap = (ring != null) ? ring.size() / 2 : bm.size() / 8;
+      return Math.max(1, Math.min(MAX_WINDOW, cap));
+   }
+}
@@ -0,0 +1,66 @@
+package simpledb.buffer;
+
+/**
+ * The interface implemented by buffer replacement policies.
+ * A replacement policy decides which unpinned buffer
+ * a {@link BasicBufferMgr basic buffer manager} reuses
+ * when a block that is not in the pool needs to be pinned.
+ * The buffer manager tells the policy about each pin and unpin;
+ * all calls are made while holding the buffer manager's lock,
+ * so a policy need not be thread-safe.
+ * A policy object manages the buffers of exactly one buffer manager.
+ */
+public interface ReplacementPolicy {
+   /**
+    * The names of the available policies,
+    * as understood by {@link BufferMgr#BufferMgr(int, String)}.
+    */
+   static final String LRU = "lru", CLOCK = "clock",
+      LRU_K = "lruk", TWO_Q = "2q";
+
+   /**
+    * Adds a new, unassigned and unpinned buffer
+    * to the set of buffers managed by the policy.
+    * This method is called once for each buffer,
+    * when the buffer manager is created.
+    * @param buff the new buffer
+    */
+   void bufferAdded(Buffer buff);
+
+   /**
+    * Records that the specified buffer has been pinned.
+    * The method is called on every pin, after the buffer
+    * has been assigned to the requested block.
+    * @param buff the pinned buffer
+    */
+   void pinned(Buffer buff);
+
+   /**
+    * Records that the specified buffer has been pinned
+    * by a one-pass scan using a {@link BufferRing}.
+    * The buffer must be treated as pinned, but the pin
+    * should not make the buffer's block look more valuable.
+    * The method is called instead of {@link #pinned(Buffer)},
+    * after the buffer has been assigned to the requested block;
+    * the buffer may have been taken from the ring
+    * instead of from {@link #chooseUnpinnedBuffer()}.
+    * @param buff the pinned buffer
+    */
+   void pinnedByScan(Buffer buff);
+
+   /**
+    * Records that the pin count of the specified buffer
+    * has dropped to 0, so that the buffer can be replaced.
+    * @param buff the unpinned buffer
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer to be replaced.
+    * The buffer manager will assign the chosen buffer to
+    * a different block and then pin it, so the policy
+    * should forget about the buffer's current block.
+    * @return an unpinned buffer, or null if all buffers are pinned
+    */
+   Buffer chooseUnpinnedBuffer();
+}
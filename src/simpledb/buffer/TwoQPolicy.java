@@ -0,0 +1,120 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+
+/**
+ * The 2Q replacement policy (Johnson and Shasha).
+ * A block that is read into the pool is placed on the
+ * FIFO queue A1in.  When it is replaced from there, its
+ * id is remembered in the queue A1out, which holds no buffers.
+ * A block that is read in again while its id is still in A1out
+ * has proven itself, and is placed on the LRU queue Am instead.
+ * Buffers in A1in are replaced in preference to those in Am
+ * once A1in holds more than a quarter of the pool,
+ * so a large scan cannot push the frequently-used
+ * blocks in Am out of the pool.
+ * A block that is pinned again while in A1in stays there:
+ * only a hit in A1out promotes a block to Am.
+ * The policy remembers the block that each queued buffer held
+ * when it was queued, since the buffer manager may reassign
+ * an unpinned buffer without consulting the policy (when a
+ * scan recycles its ring, or a discarded buffer is reused);
+ * a queued buffer found holding a different block
+ * is treated as newly assigned.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+   private Set<Buffer> free  = new LinkedHashSet<Buffer>();
+   private Set<Buffer> a1in  = new LinkedHashSet<Buffer>();
+   private Set<Buffer> am    = new LinkedHashSet<Buffer>();
+   private Set<Block> a1out = new LinkedHashSet<Block>();
+   private Map<Buffer,Block> queued = new HashMap<Buffer,Block>();
+   private int numbuffs = 0;
+
+   public void bufferAdded(Buffer buff) {
+      free.add(buff);
+      numbuffs++;
+   }
+
+   public void pinned(Buffer buff) {
+      if (isQueued(buff)) {
+         if (am.remove(buff))
+            am.add(buff);  // move to the most recently used end
+         return;
+      }
+      // the buffer has just been assigned a block
+      dequeue(buff);
+      queued.put(buff, buff.block());
+      if (a1out.remove(buff.block()))
+         am.add(buff);
+      else
+         a1in.add(buff);
+   }
+
+   public void pinnedByScan(Buffer buff) {
+      // a scanned block stays where it is, and is never promoted to Am
+      if (isQueued(buff))
+         return;
+      dequeue(buff);
+      queued.put(buff, buff.block());
+      a1in.add(buff);
+   }
+
+   public void unpinned(Buffer buff) {}
+
+   public Buffer chooseUnpinnedBuffer() {
+      Iterator<Buffer> iter = free.iterator();
+      if (iter.hasNext()) {
+         Buffer buff = iter.next();
+         iter.remove();
+         return buff;
+      }
+      Buffer buff = null;
+      if (a1in.size() > Math.max(1, numbuffs / 4))
+         buff = removeFirstUnpinned(a1in, true);
+      if (buff == null)
+         buff = removeFirstUnpinned(am, false);
+      if (buff == null)
+         buff = removeFirstUnpinned(a1in, true);
+      return buff;
+   }
+
+   /**
+    * Returns true if the buffer is in A1in or Am
+    * and still holds the block it was queued with.
+    */
+   private boolean isQueued(Buffer buff) {
+      Block blk = queued.get(buff);
+      return blk != null && blk.equals(buff.block());
+   }
+
+   private void dequeue(Buffer buff) {
+      a1in.remove(buff);
+      am.remove(buff);
+      queued.remove(buff);
+   }
+
+   private Buffer removeFirstUnpinned(Set<Buffer> queue, boolean remember) {
+      Iterator<Buffer> iter = queue.iterator();
+      while (iter.hasNext()) {
+         Buffer buff = iter.next();
+         if (!buff.isPinned()) {
+            iter.remove();
+            queued.remove(buff);
+            if (remember && buff.block() != null)
+               rememberBlock(buff.block());
+            return buff;
+         }
+      }
+      return null;
+   }
+
+   private void rememberBlock(Block blk) {
+      a1out.add(blk);
+      if (a1out.size() > Math.max(1, numbuffs / 2)) {
+         Iterator<Block> iter = a1out.iterator();
+         iter.next();
+         iter.remove();
+      }
+   }
+}
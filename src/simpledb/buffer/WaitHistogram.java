@@ -0,0 +1,84 @@
+package simpledb.buffer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of the times that pins waited for a buffer.
+ * Bucket i counts the waits that took less than 2<sup>i</sup>
+ * microseconds but at least half as long, so the histogram
+ * covers times from 1 microsecond to over an hour
+ * with a fixed, small amount of memory.
+ * The histogram may be updated by many threads at once.
+ */
+public class WaitHistogram {
+   /**
+    * The number of buckets of the histogram.
+    */
+   public static final int NUM_BUCKETS = 33;
+
+   private AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+   /**
+    * Records a wait of the specified duration.
+    * @param nanos the waiting time, in nanoseconds
+    */
+   public void record(long nanos) {
+      long micros = Math.max(0, nanos / 1000);
+      int bucket = 64 - Long.numberOfLeadingZeros(micros);
+      counts.incrementAndGet(Math.min(bucket, NUM_BUCKETS-1));
+   }
+
+   /**
+    * Returns the number of waits recorded in the specified bucket.
+    * @param bucket a bucket number, less than {@link #NUM_BUCKETS}
+    * @return the count of the bucket
+    */
+   public long count(int bucket) {
+      return counts.get(bucket);
+   }
+
+   /**
+    * Returns the number of waits recorded.
+    * @return the total count
+    */
+   public long count() {
+      long total = 0;
+      for (int i=0; i<NUM_BUCKETS; i++)
+         total += counts.get(i);
+      return total;
+   }
+
+   /**
+    * Returns an upper bound, in microseconds, on the waiting time
+    * of the specified fraction of the recorded waits.
+    * For example, percentile(0.99) bounds 99% of the waits.
+    * @param fraction a value between 0 and 1
+    * @return the upper limit of the bucket containing that percentile, or 0 if nothing was recorded
+    */
+   public long percentile(double fraction) {
+      long total = count();
+      if (total == 0)
+         return 0;
+      long seen = 0;
+      for (int i=0; i<NUM_BUCKETS; i++) {
+         seen += counts.get(i);
+         if (seen >= fraction * total)
+            return 1L << i;
+      }
+      return 1L << (NUM_BUCKETS-1);
+   }
+
+   /**
+    * Returns the nonempty buckets as lines of the form
+    * "&lt; 1024 us: 17".
+    */
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i=0; i<NUM_BUCKETS; i++) {
+         long n = counts.get(i);
+         if (n > 0)
+            sb.append("< ").append(1L << i).append(" us: ").append(n).append("\n");
+      }
+      return sb.toString();
+   }
+}
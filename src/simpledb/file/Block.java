@@ -47,7 +47,18 @@ public class Block {
       return "[file " + filename + ", block " + blknum + "]";
    }
    
+   /**
+    * Returns a hash code in which the file name and block number
+    * are well mixed, so that the blocks of a single buffer-pool
+    * partition (see {@link simpledb.buffer.BufferMgr}) do not
+    * collide in a hash table.
+    */
    public int hashCode() {
-      return toString().hashCode();
+      int h = 31 * filename.hashCode() + blknum;
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      return h ^ (h >>> 16);
    }
 }
@@ -0,0 +1,170 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A temporary file whose blocks are stored compressed
+ * (see {@link PageCodec}), and so take up
+ * a variable number of bytes.
+ * The blocks are packed into the file one after another,
+ * and an index kept in memory gives the position and length
+ * of each block.  Since temporary files do not survive a restart,
+ * the index never needs to be written to disk.
+ * <p>
+ * A block is rewritten in place if its new contents fit
+ * in the space it occupies; otherwise the block moves to the
+ * end of the file, and its old space is wasted.
+ * A block whose contents do not compress is stored as is.
+ * Blocks written one after another are thus usually
+ * adjacent in the file, so that several of them can be
+ * read with a single call.
+ * <p>
+ * The methods are synchronized, so a file is read and
+ * written by one thread at a time.  The caller supplies
+ * the file's channel, which may be closed and reopened between calls.
+ */
+class CompressedFile {
+   private int blocksize;
+   private long[] offsets = new long[16];
+   private int[] lengths = new int[16];
+   private int[] capacities = new int[16];
+   private int size = 0;
+   private long end = 0;
+   private byte[] page, packed;
+
+   /**
+    * Creates an empty compressed file.
+    * @param blocksize the block size of the database
+    */
+   CompressedFile(int blocksize) {
+      this.blocksize = blocksize;
+      page = new byte[blocksize];
+      packed = new byte[blocksize - 1];
+   }
+
+   /**
+    * Returns the number of blocks in the file.
+    * @return the number of blocks
+    */
+   synchronized int size() {
+      return size;
+   }
+
+   /**
+    * Reads the specified block into a bytebuffer.
+    * A block past the end of the file reads as zeros.
+    * @param fc the file's channel
+    * @param blknum the block number
+    * @param bb the bytebuffer
+    * @return the number of bytes read from the channel
+    * @throws IOException
+    */
+   synchronized int read(FileChannel fc, int blknum, ByteBuffer bb) throws IOException {
+      if (blknum >= size) {
+         bb.clear();
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
+         return 0;
+      }
+      ByteBuffer buf = readFully(fc, offsets[blknum], lengths[blknum]);
+      unpack(buf.array(), 0, lengths[blknum], bb);
+      return lengths[blknum];
+   }
+
+   /**
+    * Reads consecutive blocks into the specified bytebuffers,
+    * one block per buffer.  If the blocks are close together
+    * in the file, they are read with a single call.
+    * @param fc the file's channel
+    * @param startblk the number of the first block
+    * @param count the number of blocks, all of which exist
+    * @param bbs the bytebuffers
+    * @return the number of bytes read from the channel
+    * @throws IOException
+    */
+   synchronized int readBlocks(FileChannel fc, int startblk, int count, ByteBuffer[] bbs)
+         throws IOException {
+      long first = Long.MAX_VALUE, last = 0;
+      for (int i=startblk; i<startblk+count; i++) {
+         first = Math.min(first, offsets[i]);
+         last = Math.max(last, offsets[i] + lengths[i]);
+      }
+      if (last - first > (long) count * blocksize) {
+         int total = 0;
+         for (int i=0; i<count; i++)
+            total += read(fc, startblk + i, bbs[i]);
+         return total;
+      }
+      ByteBuffer buf = readFully(fc, first, (int) (last - first));
+      for (int i=0; i<count; i++) {
+         int blknum = startblk + i;
+         unpack(buf.array(), (int) (offsets[blknum] - first), lengths[blknum], bbs[i]);
+      }
+      return (int) (last - first);
+   }
+
+   /**
+    * Writes the contents of a bytebuffer to the specified block,
+    * extending the file with zeroed blocks if necessary.
+    * @param fc the file's channel
+    * @param blknum the block number
+    * @param bb the bytebuffer
+    * @return the number of bytes written to the channel
+    * @throws IOException
+    */
+   synchronized int write(FileChannel fc, int blknum, ByteBuffer bb) throws IOException {
+      while (size < blknum)
+         write(fc, size, ByteBuffer.allocate(blocksize));
+      bb.rewind();
+      bb.get(page);
+      int len = PageCodec.encode(page, blocksize, packed);
+      byte[] data = (len < 0) ? page : packed;
+      if (len < 0)
+         len = blocksize;
+      if (blknum == size) {
+         ensureCapacity(size + 1);
+         capacities[size] = 0;
+         size++;
+      }
+      if (len > capacities[blknum]) {
+         offsets[blknum] = end;
+         capacities[blknum] = len;
+         end += len;
+      }
+      lengths[blknum] = len;
+      ByteBuffer buf = ByteBuffer.wrap(data, 0, len);
+      long pos = offsets[blknum];
+      while (buf.hasRemaining())
+         fc.write(buf, pos + buf.position());
+      return len;
+   }
+
+   private ByteBuffer readFully(FileChannel fc, long pos, int len) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate(len);
+      while (buf.hasRemaining())
+         if (fc.read(buf, pos + buf.position()) < 0)
+            throw new IOException("compressed file is truncated");
+      return buf;
+   }
+
+   private void unpack(byte[] src, int from, int len, ByteBuffer bb) {
+      if (len == blocksize) {
+         bb.clear();
+         bb.put(src, from, len);
+      }
+      else
+         PageCodec.decode(src, from, len, bb);
+   }
+
+   private void ensureCapacity(int n) {
+      if (n <= offsets.length)
+         return;
+      int newlen = Math.max(n, 2 * offsets.length);
+      offsets = Arrays.copyOf(offsets, newlen);
+      lengths = Arrays.copyOf(lengths, newlen);
+      capacities = Arrays.copyOf(capacities, newlen);
+   }
+}
@@ -1,10 +1,12 @@
 package simpledb.file;
 
-import static simpledb.file.Page.BLOCK_SIZE;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The SimpleDB file manager.
@@ -15,27 +17,132 @@ import java.util.*;
  * and appending the contents of a byte buffer to the end of a file.
  * These methods are called exclusively by the class {@link simpledb.file.Page Page},
  * and are thus package-private.
+ * They take no lock on the file manager: reads and writes are
+ * positional, so any number of threads can access different blocks,
+ * even of the same file, in parallel.  Only appends to the same file
+ * are serialized.
+ * Files grow in extents of several blocks (see {@link #setExtentSize(int)}),
+ * and the file manager keeps the logical end of each file in memory;
+ * the end is recorded in the header file only when an extent is allocated.
+ * At most a fixed number of files are open at once
+ * (see {@link #setMaxOpenFiles(int)}); the least recently used
+ * file is closed to make room for another.
+ * Method {@link #delete(String) delete} removes a file that is no longer
+ * needed; the file of a deleted temporary table is kept as a spare,
+ * which is renamed and reused for a later temporary table.
  * The class also contains two public methods:
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * Method {@link #blockSize() blockSize} returns the size of the database's blocks,
+ * which is fixed when the database is created and is stored in its header file.
+ * Method {@link #force(String) force} is called when a transaction commits,
+ * to make the blocks it wrote durable; the other writes are not synchronous.
+ * Method {@link #directory() directory} returns the database directory,
+ * for the components that keep files of their own there.
+ * Methods {@link #startScheduler() startScheduler} and
+ * {@link #stopScheduler() stopScheduler} control an {@link IOScheduler},
+ * which performs the writes requested through
+ * {@link Page#writeAsync(Block)} in the background, sorted and merged.
+ * Temporary files can be stored compressed
+ * (see {@link #setCompressTempFiles(boolean)}).
+ * The subclass {@link SimulatedFileMgr} simulates a disk,
+ * for measuring I/O reproducibly.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The name of the file that holds the database header.
+    * The header records the block size chosen when the
+    * database was created, and the logical end that each
+    * permanent file had when its last extent was allocated.
+    */
+   public static final String HEADER_FILE = "simpledb.hdr";
+
+   /**
+    * The block size of databases that were created
+    * before the block size was stored in a header.
+    */
+   public static final int LEGACY_BLOCK_SIZE = 400;
+
+   /**
+    * The default limit on the number of open files.
+    */
+   public static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+   /**
+    * The largest number of spare temporary files kept for reuse.
+    */
+   public static final int MAX_SPARE_FILES = 16;
+
+   private static final int HEADER_MAGIC = 0x53444248; // "SDBH"
+   private static final int FREE_MAGIC   = 0x53444246; // "SDBF"
+
+   /**
+    * The logical and physical ends of an open file, in blocks.
+    * Both are changed only while holding the lock on the file's channel.
+    */
+   private static class FileEnd {
+      volatile int size;
+      int allocated;
+
+      FileEnd(int size, int allocated) {
+         this.size = size;
+         this.allocated = allocated;
+      }
+   }
+
    private File dbDirectory;
    private boolean isNew;
-   private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
+   private int blocksize;
+   private Map<String,OpenFile> openFiles = new ConcurrentHashMap<String,OpenFile>();
+   private volatile int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+   private Queue<String> spareFiles = new ConcurrentLinkedQueue<String>();
+   private int nextSpareNum = 0;
+   private Map<String,MappedFile> mappedFiles = null;
+   private AtomicLong readCalls = new AtomicLong(0);
+   private AtomicLong writeCalls = new AtomicLong(0);
+   private volatile IOScheduler scheduler = null;
+   private Map<String,FileEnd> fileEnds = new ConcurrentHashMap<String,FileEnd>();
+   private Map<String,Integer> savedEnds = new TreeMap<String,Integer>();
+   private volatile int extentSize = 0;
+   private AtomicLong bytesRead = new AtomicLong(0);
+   private AtomicLong bytesWritten = new AtomicLong(0);
+   private volatile boolean compressTemp = false;
+   private Map<String,CompressedFile> compressedFiles = new ConcurrentHashMap<String,CompressedFile>();
 
    /**
     * Creates a file manager for the specified database.
     * The database will be stored in a folder of that name
     * in the user's home directory.
     * If the folder does not exist, then a folder containing
-    * an empty database is created automatically.
+    * an empty database is created automatically,
+    * and its header is written with the specified block size.
+    * Otherwise the block size is read from the existing header,
+    * and the specified value is ignored.
     * Files for all temporary tables (i.e. tables beginning with "temp") are deleted.
     * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size to use if the database is new
+    */
+   public FileMgr(String dbname, int blocksize) {
+      this(dbname, blocksize, false);
+   }
+
+   /**
+    * Creates a file manager for the specified database,
+    * as in {@link #FileMgr(String, int)}.
+    * If mapped is true, then the blocks of each file are read and
+    * written through memory mappings of the file
+    * (see {@link MappedFile}), instead of through the file's channel.
+    * The mapped mode is meant for read-mostly databases
+    * that fit in memory.
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size to use if the database is new
+    * @param mapped whether files are accessed through memory mappings
     */
-   public FileMgr(String dbname) {
+   public FileMgr(String dbname, int blocksize, boolean mapped) {
+      if (mapped)
+         mappedFiles = new ConcurrentHashMap<String,MappedFile>();
       String homedir = System.getProperty("user.home");
       dbDirectory = new File(homedir, dbname);
       isNew = !dbDirectory.exists();
@@ -44,6 +151,9 @@ public class FileMgr {
       if (isNew && !dbDirectory.mkdir())
          throw new RuntimeException("cannot create " + dbname);
 
+      // read the block size and file ends from the header, creating it if necessary
+      this.blocksize = openHeader(blocksize);
+
       // remove any leftover temporary tables
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
@@ -52,62 +162,340 @@ public class FileMgr {
 
    /**
     * Reads the contents of a disk block into a bytebuffer.
+    * The read is positional, so reads and writes of
+    * other blocks can proceed at the same time.
+    * If the block has a write pending in the scheduler,
+    * its contents are taken from that write instead.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
       try {
+         if (mappedFiles != null && mapped(blk.fileName()).read(blk.number(), bb))
+            return;
+         IOScheduler s = scheduler;
+         if (s != null && s.readPending(blk, bb))
+            return;
+         CompressedFile cf = compressed(blk.fileName());
          bb.clear();
-         FileChannel fc = getFile(blk.fileName());
-         fc.read(bb, blk.number() * BLOCK_SIZE);
+         long bytes = 0;
+         OpenFile f = acquire(blk.fileName());
+         try {
+            FileChannel fc = f.channel();
+            if (cf != null) {
+               bytes = cf.read(fc, blk.number(), bb);
+               readCalls.incrementAndGet();
+            }
+            else {
+               long pos = (long) blk.number() * blocksize;
+               while (bb.hasRemaining() && fc.read(bb, pos + bb.position()) >= 0)
+                  readCalls.incrementAndGet();
+               bytes = bb.position();
+            }
+         }
+         finally {
+            f.release();
+         }
+         bytesRead.addAndGet(bytes);
+         transferred(blk.fileName(), blk.number(), 1, bytes, false);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
+   /**
+    * Reads consecutive blocks of a file into the specified
+    * bytebuffers, one block per buffer, with a single
+    * scatter read when possible.
+    * The channel's position is shared, so scatter reads of the
+    * same file are serialized; other reads and writes of the file
+    * are positional, and are not affected.
+    * If the file ends before the last block, then fewer blocks
+    * are read, and the contents of the remaining buffers are unspecified.
+    * Blocks having a write pending in the scheduler
+    * get the contents of that write.
+    * Nothing is read from a temporary file that does not exist,
+    * such as the file of a deleted temporary table,
+    * and the file is not created.
+    * @param filename the name of the file
+    * @param startblk the number of the first block
+    * @param count the number of blocks
+    * @param bbs the bytebuffers, of which the first count are used
+    * @return the number of blocks read
+    */
+   int readBlocks(String filename, int startblk, int count, ByteBuffer[] bbs) {
+      count = Math.max(0, Math.min(count, size(filename) - startblk));
+      if (count == 0)
+         return 0;
+      try {
+         if (mappedFiles != null) {
+            MappedFile mf = mapped(filename);
+            int n = 0;
+            while (n < count && mf.read(startblk + n, bbs[n]))
+               n++;
+            return n;
+         }
+         IOScheduler s = scheduler;
+         ByteBuffer[] pendingData = (s == null) ? null : s.pendingRange(filename, startblk, count);
+         CompressedFile cf = compressed(filename);
+         for (int i=0; i<count; i++)
+            bbs[i].clear();
+         long total = 0;
+         int numread;
+         OpenFile f = acquire(filename);
+         try {
+            FileChannel fc = f.channel();
+            if (cf != null) {
+               total = cf.readBlocks(fc, startblk, count, bbs);
+               readCalls.incrementAndGet();
+               numread = count;
+            }
+            else {
+               long wanted = (long) count * blocksize;
+               synchronized (fc) {
+                  fc.position((long) startblk * blocksize);
+                  long n;
+                  while (total < wanted && (n = fc.read(bbs, 0, count)) > 0) {
+                     total += n;
+                     readCalls.incrementAndGet();
+                  }
+               }
+               numread = (int) (total / blocksize);
+            }
+         }
+         finally {
+            f.release();
+         }
+         bytesRead.addAndGet(total);
+         transferred(filename, startblk, numread, total, false);
+         if (pendingData != null)
+            for (int i=0; i<numread; i++)
+               if (pendingData[i] != null) {
+                  bbs[i].clear();
+                  bbs[i].put(pendingData[i].duplicate().rewind());
+               }
+         return numread;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read blocks " + startblk + "-"
+                                    + (startblk + count - 1) + " of " + filename);
+      }
+   }
+
    /**
     * Writes the contents of a bytebuffer into a disk block.
+    * The write is positional, so reads and writes of
+    * other blocks can proceed at the same time.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
       try {
+         if (mappedFiles != null && mapped(blk.fileName()).write(blk.number(), bb))
+            return;
+         CompressedFile cf = compressed(blk.fileName());
          bb.rewind();
-         FileChannel fc = getFile(blk.fileName());
-         fc.write(bb, blk.number() * BLOCK_SIZE);
+         long bytes;
+         OpenFile f = acquire(blk.fileName());
+         try {
+            FileChannel fc = f.channel();
+            if (cf != null) {
+               bytes = cf.write(fc, blk.number(), bb);
+               writeCalls.incrementAndGet();
+            }
+            else {
+               long pos = (long) blk.number() * blocksize;
+               while (bb.hasRemaining()) {
+                  fc.write(bb, pos + bb.position());
+                  writeCalls.incrementAndGet();
+               }
+               bytes = blocksize;
+            }
+         }
+         finally {
+            f.release();
+         }
+         bytesWritten.addAndGet(bytes);
+         transferred(blk.fileName(), blk.number(), 1, bytes, true);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
+   /**
+    * Writes the contents of a bytebuffer into a disk block
+    * in the background, if the scheduler is running.
+    * The contents are copied, so the bytebuffer may be
+    * changed as soon as the method returns.
+    * The block is durable once its file has been {@link #force forced}.
+    * If the scheduler is not running, the block is written
+    * before the method returns.
+    * @param blk a reference to a disk block
+    * @param bb  the bytebuffer
+    * @return a future that completes when the block has been written
+    */
+   Future<Void> writeAsync(Block blk, ByteBuffer bb) {
+      IOScheduler s = scheduler;
+      if (s == null) {
+         write(blk, bb);
+         return CompletableFuture.completedFuture(null);
+      }
+      ByteBuffer copy = ByteBuffer.allocate(blocksize);
+      bb.rewind();
+      copy.put(bb);
+      return s.submit(blk, copy);
+   }
+
+   /**
+    * Writes the specified bytebuffers to consecutive blocks of a file,
+    * one block per buffer, with a single gathering write when possible.
+    * As with {@link #readBlocks}, the channel's position is shared,
+    * so gathering writes of the same file are serialized.
+    * This method is called by the {@link IOScheduler}
+    * and by the log manager.
+    * When files are mapped, the blocks are written one at a time.
+    * @param filename the name of the file
+    * @param startblk the number of the first block
+    * @param bbs the bytebuffers
+    */
+   void writeBlocks(String filename, int startblk, ByteBuffer[] bbs) {
+      if (mappedFiles != null) {
+         for (int i=0; i<bbs.length; i++)
+            write(new Block(filename, startblk + i), bbs[i]);
+         return;
+      }
+      try {
+         for (ByteBuffer bb : bbs)
+            bb.rewind();
+         CompressedFile cf = compressed(filename);
+         long total = 0;
+         OpenFile f = acquire(filename);
+         try {
+            FileChannel fc = f.channel();
+            if (cf != null) {
+               for (int i=0; i<bbs.length; i++)
+                  total += cf.write(fc, startblk + i, bbs[i]);
+               writeCalls.incrementAndGet();
+            }
+            else {
+               long wanted = (long) bbs.length * blocksize;
+               synchronized (fc) {
+                  fc.position((long) startblk * blocksize);
+                  while (total < wanted) {
+                     total += fc.write(bbs);
+                     writeCalls.incrementAndGet();
+                  }
+               }
+            }
+         }
+         finally {
+            f.release();
+         }
+         bytesWritten.addAndGet(total);
+         transferred(filename, startblk, bbs.length, total, true);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write blocks " + startblk + "-"
+                                    + (startblk + bbs.length - 1) + " of " + filename);
+      }
+   }
+
    /**
     * Appends the contents of a bytebuffer to the end
     * of the specified file.
+    * Appends to the same file are serialized by locking
+    * the file's end, so that each gets its own block;
+    * appends to different files do not block each other.
+    * The file usually already has room for the block,
+    * in which case the append only advances the file's
+    * logical end and writes the block.
+    * Otherwise the file is first extended, as described
+    * in {@link #setExtentSize(int)}.
+    * A compressed temporary file has no extents; appends
+    * to it are serialized by locking the compressed file.
     * @param filename the name of the file
     * @param bb  the bytebuffer
     * @return a reference to the newly-created block.
     */
-   synchronized Block append(String filename, ByteBuffer bb) {
-      int newblknum = size(filename);
-      Block blk = new Block(filename, newblknum);
-      write(blk, bb);
-      return blk;
+   Block append(String filename, ByteBuffer bb) {
+      CompressedFile cf = compressed(filename);
+      if (cf != null) {
+         synchronized (cf) {
+            Block blk = new Block(filename, cf.size());
+            write(blk, bb);
+            return blk;
+         }
+      }
+      FileEnd end = end(filename);
+      synchronized (end) {
+         int newblknum = end.size;
+         if (newblknum >= end.allocated)
+            extend(filename, end);
+         Block blk = new Block(filename, newblknum);
+         write(blk, bb);
+         end.size = newblknum + 1;
+         return blk;
+      }
    }
 
    /**
-    * Returns the number of blocks in the specified file.
+    * Returns the number of blocks in the specified file,
+    * which is the logical end of the file: blocks that have
+    * been allocated but not yet appended are not counted.
+    * The size is kept in memory, and so does not require
+    * a call to the operating system.
+    * A temporary file that does not exist has size 0,
+    * and is not created until a block is appended to it.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int size(String filename) {
+   public int size(String filename) {
+      if (isMissingTemp(filename))
+         return 0;
+      CompressedFile cf = compressed(filename);
+      if (cf != null)
+         return cf.size();
+      return end(filename).size;
+   }
+
+   /**
+    * Forces the blocks written to the specified file to disk.
+    * Writes are not synchronous, so a block is durable only
+    * after its file has been forced.
+    * Temporary files are never forced, because they
+    * do not survive a restart.
+    * The blocks of the file that are still waiting in the
+    * scheduler are written first.
+    * Forcing also covers the writes made through earlier
+    * channels of the file, which may have been closed
+    * to stay within the limit on open files.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      if (filename.startsWith("temp"))
+         return;
+      IOScheduler s = scheduler;
+      if (s != null)
+         s.waitFor(filename);
       try {
-         FileChannel fc = getFile(filename);
-         return (int)(fc.size() / BLOCK_SIZE);
+         if (mappedFiles != null) {
+            MappedFile mf = mappedFiles.get(filename);
+            if (mf != null)
+               mf.force();
+         }
+         OpenFile f = acquire(filename);
+         try {
+            f.channel().force(false);
+         }
+         finally {
+            f.release();
+         }
+         forced(filename);
       }
       catch (IOException e) {
-         throw new RuntimeException("cannot access " + filename);
+         throw new RuntimeException("cannot force " + filename);
       }
    }
 
@@ -121,22 +509,675 @@ public class FileMgr {
    }
 
    /**
-    * Returns the file channel for the specified filename.
-    * The file channel is stored in a map keyed on the filename.
-    * If the file is not open, then it is opened and the file channel
-    * is added to the map.
+    * Returns the size, in bytes, of each block of the database.
+    * @return the block size
+    */
+   public int blockSize() {
+      return blocksize;
+   }
+
+   /**
+    * Sets the amount of space by which a file grows when an
+    * append reaches the end of the space allocated to it.
+    * A file grows by as many blocks as it already has,
+    * but by at most this many bytes, so that small files stay small
+    * and large files grow in large extents; a size smaller than
+    * a block makes each append grow the file by one block.
+    * Before a file grows by more than one block, its logical end
+    * is recorded in the header file, and the blocks of the extent
+    * are marked as free.  When the file is next opened, its logical
+    * end is found by stepping forward from the recorded end
+    * over the blocks that are no longer marked, so appends
+    * do not have to update the record.
+    * Temporary files need no record, since they do not
+    * survive a restart.
+    * @param bytes the largest extent, in bytes
+    */
+   public void setExtentSize(int bytes) {
+      extentSize = bytes;
+   }
+
+   /**
+    * Sets the largest number of files that are kept open at once.
+    * When a file must be opened and the limit has been reached,
+    * the least recently used file that no thread is using is closed;
+    * it is reopened when it is next accessed.
+    * Memory-mapped files are never closed.
+    * @param max the limit on open files
+    */
+   public void setMaxOpenFiles(int max) {
+      maxOpenFiles = Math.max(1, max);
+   }
+
+   /**
+    * Returns the number of files that are currently open.
+    * @return the number of open files
+    */
+   public int openFiles() {
+      return openFiles.size();
+   }
+
+   /**
+    * Deletes the specified file.
+    * Pending background writes of the file are discarded,
+    * and the file is closed once no thread is using it;
+    * the wait is made without holding the lock on the map of
+    * open files, so that the other files can still be used,
+    * and the file is deleted only once it is no longer open.
+    * A temporary file is not actually deleted while there are
+    * fewer than {@link #MAX_SPARE_FILES} spare temporary files:
+    * it is truncated to one extent and kept as a spare, which the
+    * next new temporary file reuses, avoiding the creation of the
+    * file and the allocation of its first extent.
+    * The caller must ensure that the file is no longer in use,
+    * and in particular that the buffer pool holds none of its blocks.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      IOScheduler s = scheduler;
+      if (s != null)
+         s.discard(filename);
+      try {
+         if (mappedFiles != null)
+            mappedFiles.remove(filename);
+         while (true) {
+            OpenFile f;
+            synchronized (openFiles) {
+               f = openFiles.remove(filename);
+               if (f == null) {
+                  fileEnds.remove(filename);
+                  compressedFiles.remove(filename);
+                  File dbTable = new File(dbDirectory, filename);
+                  if (filename.startsWith("temp"))
+                     makeSpare(dbTable);
+                  else {
+                     dbTable.delete();
+                     removeEnd(filename);
+                  }
+                  return;
+               }
+            }
+            f.closeWhenUnused();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot delete " + filename);
+      }
+   }
+
+   /**
+    * Returns the number of read calls made to the
+    * operating system, which is the number of blocks read
+    * one at a time plus the number of scatter reads.
+    * Reads through memory mappings are not counted.
+    * @return the number of read calls
+    */
+   public long readCalls() {
+      return readCalls.get();
+   }
+
+   /**
+    * Returns the number of write calls made to the
+    * operating system, which is the number of blocks written
+    * one at a time plus the number of gathering writes.
+    * Appends are counted; writes through memory mappings are not.
+    * @return the number of write calls
+    */
+   public long writeCalls() {
+      return writeCalls.get();
+   }
+
+   /**
+    * Returns the number of bytes read from files.
+    * Reads through memory mappings are not counted.
+    * @return the number of bytes read
+    */
+   public long bytesRead() {
+      return bytesRead.get();
+   }
+
+   /**
+    * Returns the number of bytes written to files,
+    * including the free blocks written when a file grows.
+    * Writes through memory mappings are not counted.
+    * @return the number of bytes written
+    */
+   public long bytesWritten() {
+      return bytesWritten.get();
+   }
+
+   /**
+    * Specifies whether temporary files are stored compressed
+    * (see {@link CompressedFile}).  The pages of temporary tables
+    * hold fixed-length records whose strings are padded, so they
+    * usually compress to a fraction of a block, and sorts and
+    * materializations then write and read far fewer bytes,
+    * at the cost of compressing and decompressing each page.
+    * The setting applies to the temporary files created afterwards.
+    * Compression is not used when files are memory-mapped.
+    * @param compress whether new temporary files are compressed
+    */
+   public void setCompressTempFiles(boolean compress) {
+      compressTemp = compress;
+   }
+
+   /**
+    * Starts the background {@link IOScheduler}, so that
+    * writes requested through {@link Page#writeAsync(Block)}
+    * are performed in the background.
+    * The scheduler is not used when files are memory-mapped,
+    * since a write to a mapping is only a copy.
+    */
+   public synchronized void startScheduler() {
+      if (scheduler != null || mappedFiles != null)
+         return;
+      IOScheduler s = new IOScheduler(this);
+      s.start();
+      scheduler = s;
+   }
+
+   /**
+    * Tells the scheduler, if it is running, that the calling
+    * thread is about to submit a group of writes, so that the
+    * writes are sorted and merged together.  The scheduler writes
+    * nothing until {@link #unplug()} is called, unless its queue fills up.
+    */
+   public void plug() {
+      IOScheduler s = scheduler;
+      if (s != null)
+         s.plug();
+   }
+
+   /**
+    * Tells the scheduler that the group of writes
+    * announced by {@link #plug()} has been submitted.
+    */
+   public void unplug() {
+      IOScheduler s = scheduler;
+      if (s != null)
+         s.unplug();
+   }
+
+   /**
+    * Stops the background scheduler, if it is running,
+    * after it has performed the writes submitted to it.
+    * Later writes are performed by the calling thread.
+    * The method should be called when no writes are being submitted.
+    */
+   public synchronized void stopScheduler() {
+      IOScheduler s = scheduler;
+      if (s == null)
+         return;
+      scheduler = null;
+      s.shutdown();
+      try {
+         s.join();
+      }
+      catch (InterruptedException e) {
+         // the remaining writes are performed below
+      }
+      s.drain();
+   }
+
+   /**
+    * Called after blocks of a file have been read from
+    * or written to the file's channel.
+    * The file manager does nothing here;
+    * {@link SimulatedFileMgr} overrides the method to
+    * account for the transfer.
+    * @param filename the name of the file
+    * @param startblk the number of the first block
+    * @param count the number of blocks
+    * @param bytes the number of bytes transferred, which is less
+    * than the size of the blocks if the file is compressed
+    * @param write true if the blocks were written
+    */
+   void transferred(String filename, int startblk, int count, long bytes, boolean write) {
+   }
+
+   /**
+    * Called after a file has been forced to disk.
+    * The file manager does nothing here;
+    * {@link SimulatedFileMgr} overrides the method to
+    * account for the force.
+    * @param filename the name of the file
+    */
+   void forced(String filename) {
+   }
+
+   /**
+    * Returns the directory that holds the database.
+    * @return the database directory
+    */
+   public File directory() {
+      return dbDirectory;
+   }
+
+   /**
+    * Returns the specified file, acquired by the calling thread,
+    * which must release it when it has finished using its channel.
+    * Open files are stored in a concurrent map keyed on the filename,
+    * so that finding an open file takes no lock.
+    * If the file is not open, then it is opened and added to the map;
+    * opening is serialized, so that a file is never opened twice.
+    * If the file was closed after it was found in the map,
+    * it is looked up again.
     * @param filename the specified filename
-    * @return the file channel associated with the open file.
+    * @return the acquired file
     * @throws IOException
     */
-   private FileChannel getFile(String filename) throws IOException {
-      FileChannel fc = openFiles.get(filename);
-      if (fc == null) {
+   private OpenFile acquire(String filename) throws IOException {
+      while (true) {
+         OpenFile f = openFiles.get(filename);
+         if (f == null)
+            f = open(filename);
+         if (f.acquire())
+            return f;
+      }
+   }
+
+   /**
+    * Opens the specified file, unless another thread has just opened it.
+    * If there are already too many open files, the
+    * least recently used files that no thread is using
+    * (and that are not memory-mapped) are closed first.
+    * A temporary file that does not exist yet is
+    * made from a spare temporary file, if there is one.
+    */
+   private OpenFile open(String filename) throws IOException {
+      synchronized (openFiles) {
+         OpenFile f = openFiles.get(filename);
+         if (f != null)
+            return f;
+         while (openFiles.size() >= maxOpenFiles)
+            if (!closeLeastRecentlyUsed())
+               break;
          File dbTable = new File(dbDirectory, filename);
-         RandomAccessFile f = new RandomAccessFile(dbTable, "rws");
-         fc = f.getChannel();
-         openFiles.put(filename, fc);
+         if (filename.startsWith("temp") && !dbTable.exists())
+            reuseSpare(filename, dbTable);
+         RandomAccessFile raf = new RandomAccessFile(dbTable, "rw");
+         f = new OpenFile(raf.getChannel());
+         openFiles.put(filename, f);
+         return f;
+      }
+   }
+
+   /**
+    * Closes the least recently used open file that can be closed.
+    * The files are ordered by a snapshot of their last use,
+    * since other threads keep using them during the sort.
+    * The caller holds the lock on the map of open files.
+    * @return false if no file could be closed
+    */
+   private boolean closeLeastRecentlyUsed() throws IOException {
+      final Map<String,Long> lastUse = new HashMap<String,Long>();
+      for (Map.Entry<String,OpenFile> e : openFiles.entrySet())
+         lastUse.put(e.getKey(), e.getValue().lastUse());
+      List<String> filenames = new ArrayList<String>(lastUse.keySet());
+      Collections.sort(filenames, new Comparator<String>() {
+         public int compare(String f1, String f2) {
+            return Long.compare(lastUse.get(f1), lastUse.get(f2));
+         }
+      });
+      for (String filename : filenames) {
+         if (mappedFiles != null && mappedFiles.containsKey(filename))
+            continue;
+         OpenFile f = openFiles.get(filename);
+         if (f != null && f.closeIfUnused()) {
+            openFiles.remove(filename);
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Renames a spare temporary file to the specified name,
+    * if there is a spare.  The new file is empty, but keeps
+    * the blocks allocated to the spare.
+    * The caller holds the lock on the map of open files.
+    */
+   private void reuseSpare(String filename, File dbTable) {
+      String spare = spareFiles.poll();
+      if (spare == null)
+         return;
+      File spareFile = new File(dbDirectory, spare);
+      if (spareFile.renameTo(dbTable)) {
+         fileEnds.put(filename, new FileEnd(0, (int) (dbTable.length() / blocksize)));
+      }
+      else
+         spareFile.delete();
+   }
+
+   /**
+    * Makes the specified temporary file a spare, by truncating it
+    * to at most one extent and giving it a spare name,
+    * or deletes it if there are enough spares already.
+    * The caller holds the lock on the map of open files,
+    * and the file is closed.
+    * @param dbTable the file
+    */
+   private void makeSpare(File dbTable) throws IOException {
+      if (spareFiles.size() < MAX_SPARE_FILES) {
+         long length = Math.max(blocksize, extentSize / blocksize * blocksize);
+         if (dbTable.length() > length) {
+            RandomAccessFile raf = new RandomAccessFile(dbTable, "rw");
+            try {
+               raf.setLength(length);
+            }
+            finally {
+               raf.close();
+            }
+         }
+         String spare = "tempspare" + (++nextSpareNum);
+         if (dbTable.renameTo(new File(dbDirectory, spare))) {
+            spareFiles.add(spare);
+            return;
+         }
+      }
+      dbTable.delete();
+   }
+
+   /**
+    * Returns true if the specified file is a temporary file
+    * that the file manager has not accessed since it was
+    * last deleted, and that does not exist.
+    * Checking spares the file from being created, or made
+    * from a spare, by a late reader such as the prefetcher.
+    * @param filename the specified filename
+    * @return true if the temporary file does not exist
+    */
+   private boolean isMissingTemp(String filename) {
+      return filename.startsWith("temp")
+            && !fileEnds.containsKey(filename)
+            && !compressedFiles.containsKey(filename)
+            && !openFiles.containsKey(filename)
+            && !new File(dbDirectory, filename).exists();
+   }
+
+   /**
+    * Returns the mapped view of the specified file,
+    * creating it if necessary.
+    * The file's channel stays open as long as the mapping exists.
+    * @param filename the specified filename
+    * @return the mapped file
+    * @throws IOException
+    */
+   private MappedFile mapped(String filename) throws IOException {
+      MappedFile mf = mappedFiles.get(filename);
+      if (mf != null)
+         return mf;
+      synchronized (mappedFiles) {
+         mf = mappedFiles.get(filename);
+         if (mf == null) {
+            OpenFile f = acquire(filename);
+            try {
+               mf = new MappedFile(f.channel(), blocksize);
+               mappedFiles.put(filename, mf);
+            }
+            finally {
+               f.release();
+            }
+         }
+         return mf;
+      }
+   }
+
+   /**
+    * Returns the compressed view of the specified file,
+    * or null if the file is not compressed.
+    * A temporary file is compressed if compression was on
+    * when the file was first accessed.
+    * @param filename the specified filename
+    * @return the compressed file, or null
+    */
+   private CompressedFile compressed(String filename) {
+      CompressedFile cf = compressedFiles.get(filename);
+      if (cf != null || !compressTemp || mappedFiles != null || !filename.startsWith("temp"))
+         return cf;
+      synchronized (compressedFiles) {
+         cf = compressedFiles.get(filename);
+         if (cf == null && !fileEnds.containsKey(filename)) {
+            cf = new CompressedFile(blocksize);
+            compressedFiles.put(filename, cf);
+         }
+         return cf;
+      }
+   }
+
+   /**
+    * Returns the logical and physical ends of the specified file,
+    * determining them when the file is first accessed.
+    * The physical end is the size of the file.  A file without
+    * a record in the header has no blocks past its logical end,
+    * so its logical end is the physical end.  Otherwise the
+    * logical end follows the blocks appended since the record
+    * was made, which lie in the file's last extent.
+    * The ends are kept after the file is closed,
+    * until the file is deleted.
+    * @param filename the specified filename
+    * @return the ends of the file
+    */
+   private FileEnd end(String filename) {
+      FileEnd end = fileEnds.get(filename);
+      if (end != null)
+         return end;
+      try {
+         OpenFile f = acquire(filename);
+         try {
+            synchronized (fileEnds) {
+               end = fileEnds.get(filename);
+               if (end == null) {
+                  FileChannel fc = f.channel();
+                  int allocated = (int) (fc.size() / blocksize);
+                  int size = allocated;
+                  synchronized (savedEnds) {
+                     Integer saved = savedEnds.get(filename);
+                     if (saved != null)
+                        size = Math.min(saved, allocated);
+                  }
+                  ByteBuffer marker = ByteBuffer.allocate(2 * Page.INT_SIZE);
+                  while (size < allocated && !isFree(fc, size, marker))
+                     size++;
+                  end = new FileEnd(size, allocated);
+                  fileEnds.put(filename, end);
+               }
+               return end;
+            }
+         }
+         finally {
+            f.release();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot access " + filename);
+      }
+   }
+
+   private boolean isFree(FileChannel fc, int blknum, ByteBuffer marker) throws IOException {
+      marker.clear();
+      long pos = (long) blknum * blocksize;
+      while (marker.hasRemaining())
+         if (fc.read(marker, pos + marker.position()) < 0)
+            return false;
+      return marker.getInt(0) == FREE_MAGIC && marker.getInt(Page.INT_SIZE) == ~FREE_MAGIC;
+   }
+
+   /**
+    * Allocates the next extent of the file, writing free blocks
+    * past its physical end.  The caller holds the lock on the file's end.
+    * If the extent has more than the block being appended and the
+    * file is permanent, the end is recorded before the file grows,
+    * and the free blocks are forced, so that after a crash the
+    * logical end is found from the record and the marked blocks.
+    */
+   private void extend(String filename, FileEnd end) {
+      int count = Math.max(1, Math.min(end.allocated, extentSize / blocksize));
+      boolean recorded = count > 1 && !filename.startsWith("temp");
+      if (recorded)
+         saveEnd(filename, end.size);
+      ByteBuffer free = ByteBuffer.allocateDirect(blocksize);
+      free.putInt(FREE_MAGIC).putInt(~FREE_MAGIC);
+      ByteBuffer[] bbs = new ByteBuffer[count];
+      for (int i=0; i<count; i++)
+         bbs[i] = free.duplicate().clear();
+      try {
+         OpenFile f = acquire(filename);
+         try {
+            FileChannel fc = f.channel();
+            synchronized (fc) {
+               fc.position((long) end.allocated * blocksize);
+               long total = 0, wanted = (long) count * blocksize;
+               while (total < wanted) {
+                  total += fc.write(bbs);
+                  writeCalls.incrementAndGet();
+               }
+               if (recorded)
+                  fc.force(false);
+            }
+         }
+         finally {
+            f.release();
+         }
+         bytesWritten.addAndGet((long) count * blocksize);
+         transferred(filename, end.allocated, count, (long) count * blocksize, true);
+         end.allocated += count;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot extend " + filename);
+      }
+   }
+
+   /**
+    * Returns the block size stored in the database header,
+    * and reads the file ends recorded there.
+    * A new database gets a header containing the specified block size.
+    * An existing database without a header predates the header file,
+    * and so gets a header containing the legacy block size.
+    * The block size is checked before the header is created,
+    * so that an invalid size leaves no header behind.
+    * @param newsize the block size to use for a new database
+    * @return the block size of the database
+    */
+   private int openHeader(int newsize) {
+      File hdr = new File(dbDirectory, HEADER_FILE);
+      try {
+         if (hdr.length() > 0) {
+            RandomAccessFile f = new RandomAccessFile(hdr, "r");
+            try {
+               if (f.readInt() != HEADER_MAGIC)
+                  throw new RuntimeException("bad header in " + hdr);
+               int size = f.readInt();
+               if (f.getFilePointer() < f.length()) {
+                  int count = f.readInt();
+                  for (int i=0; i<count; i++)
+                     savedEnds.put(f.readUTF(), f.readInt());
+               }
+               return size;
+            }
+            finally {
+               f.close();
+            }
+         }
+         int size = isNew ? newsize : LEGACY_BLOCK_SIZE;
+         if (size < 2 * Page.INT_SIZE)
+            throw new RuntimeException("invalid block size " + size);
+         RandomAccessFile f = new RandomAccessFile(hdr, "rw");
+         try {
+            f.writeInt(HEADER_MAGIC);
+            f.writeInt(size);
+            f.getFD().sync();
+            return size;
+         }
+         finally {
+            f.close();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot access " + hdr);
+      }
+   }
+
+   /**
+    * Records the logical end of the specified file in the header,
+    * if the recorded end differs.
+    * @param filename the name of the file
+    * @param size the logical end of the file
+    */
+   private void saveEnd(String filename, int size) {
+      synchronized (savedEnds) {
+         Integer saved = savedEnds.get(filename);
+         if (saved != null && saved == size)
+            return;
+         savedEnds.put(filename, size);
+         saveHeader();
+      }
+   }
+
+   /**
+    * Removes the record of the specified file's end from the header,
+    * if there is one.
+    * @param filename the name of the deleted file
+    */
+   private void removeEnd(String filename) {
+      synchronized (savedEnds) {
+         if (savedEnds.remove(filename) != null)
+            saveHeader();
+      }
+   }
+
+   /**
+    * Writes the header to a new file, which then replaces the old
+    * header, so that a crash leaves either the old or the new header.
+    * The directory is forced after the rename, so that the new
+    * header is durable.
+    * The caller holds the lock on the recorded file ends.
+    */
+   private void saveHeader() {
+      File hdr = new File(dbDirectory, HEADER_FILE);
+      File tmp = new File(dbDirectory, HEADER_FILE + ".new");
+      try {
+         RandomAccessFile f = new RandomAccessFile(tmp, "rw");
+         try {
+            f.setLength(0);
+            f.writeInt(HEADER_MAGIC);
+            f.writeInt(blocksize);
+            f.writeInt(savedEnds.size());
+            for (Map.Entry<String,Integer> e : savedEnds.entrySet()) {
+               f.writeUTF(e.getKey());
+               f.writeInt(e.getValue());
+            }
+            f.getFD().sync();
+         }
+         finally {
+            f.close();
+         }
+         Files.move(tmp.toPath(), hdr.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (IOException e) {
+         tmp.delete();
+         throw new RuntimeException("cannot write " + hdr);
+      }
+      forceDirectory();
+   }
+
+   /**
+    * Forces the entries of the database directory to disk.
+    * Some platforms cannot open a directory, and there the
+    * rename is left to the file system.
+    */
+   private void forceDirectory() {
+      try {
+         FileChannel dir = FileChannel.open(dbDirectory.toPath(), StandardOpenOption.READ);
+         try {
+            dir.force(true);
+         }
+         finally {
+            dir.close();
+         }
+      }
+      catch (IOException e) {
+         // directories cannot be opened on this platform
       }
-      return fc;
    }
 }
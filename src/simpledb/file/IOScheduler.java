@@ -0,0 +1,370 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A background thread that performs the block writes
+ * submitted to the file manager by {@link FileMgr#writeAsync}.
+ * Each submitted write is a copy of the page, so the caller
+ * may reuse the page immediately.  The thread takes all of the
+ * writes waiting in the submission queue at once, sorts them by
+ * file and block number, keeps only the last write of each block,
+ * and writes each run of consecutive blocks of a file with a single
+ * gathering write.  Writes therefore reach the disk in file order
+ * and in large pieces, whatever order they were submitted in.
+ * <p>
+ * Until a write is on disk, the block's new contents exist only
+ * in the scheduler, so the file manager reads such a block
+ * from the pending write instead of from the disk,
+ * and forcing a file first waits for its pending writes.
+ * The submission queue is bounded, so a thread that submits
+ * writes faster than the disk takes them eventually waits.
+ * <p>
+ * A thread that is about to submit a group of writes,
+ * such as the buffers of a committing transaction, can
+ * {@link #plug() plug} the scheduler, so that the thread
+ * does not start writing until the whole group has been
+ * submitted and can be sorted and merged.
+ * <p>
+ * A write that fails stays pending, and is retried after a wait
+ * that doubles with each attempt.  After {@link #MAX_ATTEMPTS}
+ * attempts the write is dropped and its future fails, and the
+ * failure is reported when the file is next forced, so that
+ * the transaction that forces it learns that its blocks
+ * are not on disk.
+ */
+class IOScheduler extends Thread {
+   /**
+    * The largest number of writes waiting in the submission queue.
+    */
+   static final int MAX_QUEUED = 1024;
+
+   /**
+    * The largest number of blocks written with a single call.
+    */
+   static final int MAX_RUN = 64;
+
+   /**
+    * The number of times a failing write is attempted
+    * before it is dropped.
+    */
+   static final int MAX_ATTEMPTS = 5;
+
+   private static final long POLL_TIME = 100; // milliseconds
+   private static final long PLUG_CHECK_TIME = 10; // milliseconds
+
+   private static final Comparator<Write> WRITE_ORDER = new Comparator<Write>() {
+      public int compare(Write w1, Write w2) {
+         int result = w1.blk.fileName().compareTo(w2.blk.fileName());
+         return (result != 0) ? result : Integer.compare(w1.blk.number(), w2.blk.number());
+      }
+   };
+
+   /**
+    * A submitted write, whose future completes
+    * when the block is on disk, or when the write is
+    * superseded or discarded.
+    */
+   private static class Write {
+      final Block blk;
+      final ByteBuffer data;
+      final CompletableFuture<Void> done = new CompletableFuture<Void>();
+      int attempts = 0;
+      long retryTime = 0;
+
+      Write(Block blk, ByteBuffer data) {
+         this.blk = blk;
+         this.data = data;
+      }
+   }
+
+   private FileMgr fm;
+   private BlockingQueue<Write> queue = new LinkedBlockingQueue<Write>(MAX_QUEUED);
+   private ConcurrentMap<Block,Write> pending = new ConcurrentHashMap<Block,Write>();
+   private volatile boolean stopped = false;
+   private int plugs = 0;
+   private Object writeLock = new Object();
+   private List<Write> retries = new ArrayList<Write>();
+   private Set<String> failedFiles = ConcurrentHashMap.<String>newKeySet();
+
+   /**
+    * Creates a scheduler for the specified file manager.
+    * The thread is a daemon, and so does not keep
+    * the server running.
+    * @param fm the file manager that performs the writes
+    */
+   IOScheduler(FileMgr fm) {
+      super("io scheduler");
+      this.fm = fm;
+      setDaemon(true);
+   }
+
+   /**
+    * Adds a write of the specified block to the submission queue,
+    * waiting if the queue is full.
+    * The write replaces any pending write of the same block.
+    * @param blk a reference to a disk block
+    * @param data the new contents of the block, which must not be changed afterwards
+    * @return a future that completes when the block is on disk
+    */
+   Future<Void> submit(Block blk, ByteBuffer data) {
+      Write w = new Write(blk, data);
+      pending.put(blk, w);
+      try {
+         queue.put(w);
+      }
+      catch (InterruptedException e) {
+         throw new RuntimeException("interrupted while writing block " + blk);
+      }
+      return w.done;
+   }
+
+   /**
+    * Copies the contents of the pending write of the specified
+    * block, if there is one, into the bytebuffer.
+    * @param blk a reference to a disk block
+    * @param bb the bytebuffer
+    * @return true if the block has a pending write
+    */
+   boolean readPending(Block blk, ByteBuffer bb) {
+      Write w = pending.get(blk);
+      if (w == null)
+         return false;
+      bb.clear();
+      bb.put(w.data.duplicate().rewind());
+      return true;
+   }
+
+   /**
+    * Returns the contents of the pending writes of the specified
+    * consecutive blocks, or null if none of the blocks has one.
+    * An element of the array is null if its block has no pending write.
+    * The caller must take the contents before reading
+    * the blocks from disk, since a pending write may complete
+    * while the blocks are being read.
+    * @param filename the name of the file
+    * @param startblk the number of the first block
+    * @param count the number of blocks
+    * @return the pending contents of the blocks, or null
+    */
+   ByteBuffer[] pendingRange(String filename, int startblk, int count) {
+      if (pending.isEmpty())
+         return null;
+      ByteBuffer[] data = null;
+      for (int i=0; i<count; i++) {
+         Write w = pending.get(new Block(filename, startblk + i));
+         if (w != null) {
+            if (data == null)
+               data = new ByteBuffer[count];
+            data[i] = w.data;
+         }
+      }
+      return data;
+   }
+
+   /**
+    * Waits until the pending writes of the specified file are on disk.
+    * A failing write is waited for until it is retried successfully
+    * or dropped.  If a write of the file has been dropped since the
+    * file was last forced, an exception is thrown.
+    * @param filename the name of the file
+    */
+   void waitFor(String filename) {
+      for (Write w : pending.values())
+         if (w.blk.fileName().equals(filename)) {
+            try {
+               w.done.get();
+            }
+            catch (InterruptedException e) {
+               throw new RuntimeException("interrupted while writing block " + w.blk);
+            }
+            catch (ExecutionException e) {
+               // the failure is recorded for the file
+            }
+         }
+      if (failedFiles.remove(filename))
+         throw new RuntimeException("cannot write " + filename);
+   }
+
+   /**
+    * Discards the pending writes of the specified file,
+    * which is being deleted.  If the thread is writing,
+    * the method waits until it has finished, so that
+    * the thread does not write to the file afterwards.
+    * @param filename the name of the file
+    */
+   void discard(String filename) {
+      synchronized (writeLock) {
+         Iterator<Write> iter = pending.values().iterator();
+         while (iter.hasNext()) {
+            Write w = iter.next();
+            if (w.blk.fileName().equals(filename)) {
+               iter.remove();
+               w.done.complete(null);
+            }
+         }
+         failedFiles.remove(filename);
+      }
+   }
+
+   /**
+    * Keeps the thread from taking writes from the submission queue
+    * until {@link #unplug()} is called, unless the queue fills up.
+    * Plugs nest, and several threads may plug the scheduler at once.
+    */
+   synchronized void plug() {
+      plugs++;
+   }
+
+   /**
+    * Removes a plug added by {@link #plug()}.
+    */
+   synchronized void unplug() {
+      if (plugs > 0 && --plugs == 0)
+         notifyAll();
+   }
+
+   /**
+    * Asks the thread to stop once the submission queue is empty.
+    * The thread is not interrupted, because interrupting
+    * a thread during a write would close the file's channel.
+    */
+   void shutdown() {
+      stopped = true;
+   }
+
+   /**
+    * Performs the writes still in the submission queue,
+    * and retries the failed writes once more without waiting,
+    * in the calling thread.
+    * This method is called after the thread has stopped.
+    * If a write still fails, an exception is thrown.
+    */
+   void drain() {
+      List<Write> batch = new ArrayList<Write>();
+      queue.drainTo(batch);
+      batch.addAll(retries);
+      retries.clear();
+      if (!batch.isEmpty())
+         perform(batch);
+      if (!retries.isEmpty())
+         throw new RuntimeException("cannot write block " + retries.get(0).blk);
+      if (!failedFiles.isEmpty())
+         throw new RuntimeException("cannot write " + failedFiles.iterator().next());
+   }
+
+   public void run() {
+      List<Write> batch = new ArrayList<Write>();
+      try {
+         while (!stopped || !queue.isEmpty()) {
+            Write w = queue.poll(POLL_TIME, TimeUnit.MILLISECONDS);
+            if (w != null) {
+               batch.add(w);
+               awaitUnplugged();
+               queue.drainTo(batch);
+            }
+            takeRetries(batch);
+            if (batch.isEmpty())
+               continue;
+            perform(batch);
+            batch.clear();
+         }
+      }
+      catch (InterruptedException e) {
+         // the scheduler has been stopped
+      }
+   }
+
+   /**
+    * Moves the failed writes whose wait is over into the batch.
+    */
+   private void takeRetries(List<Write> batch) {
+      long now = System.currentTimeMillis();
+      Iterator<Write> iter = retries.iterator();
+      while (iter.hasNext()) {
+         Write w = iter.next();
+         if (w.retryTime <= now) {
+            batch.add(w);
+            iter.remove();
+         }
+      }
+   }
+
+   /**
+    * Waits while the scheduler is plugged, checking periodically
+    * whether the queue has filled up, in which case
+    * the writers are waiting for the thread.
+    */
+   private synchronized void awaitUnplugged() throws InterruptedException {
+      while (plugs > 0 && queue.remainingCapacity() > 0 && !stopped)
+         wait(PLUG_CHECK_TIME);
+   }
+
+   /**
+    * Sorts the batch and writes each run of consecutive blocks.
+    * Only the pending write of each block is performed;
+    * a write that has been superseded by a later write
+    * of the block, or discarded, is skipped.
+    */
+   private void perform(List<Write> batch) {
+      Collections.sort(batch, WRITE_ORDER);
+      List<Write> run = new ArrayList<Write>();
+      synchronized (writeLock) {
+         for (Write w : batch) {
+            if (pending.get(w.blk) != w) {
+               w.done.complete(null);
+               continue;
+            }
+            if (!run.isEmpty()) {
+               Block last = run.get(run.size()-1).blk;
+               if (run.size() == MAX_RUN || !last.fileName().equals(w.blk.fileName())
+                     || last.number() + 1 != w.blk.number()) {
+                  write(run);
+                  run.clear();
+               }
+            }
+            run.add(w);
+         }
+         if (!run.isEmpty())
+            write(run);
+      }
+   }
+
+   /**
+    * Writes a run of consecutive blocks and completes their writes.
+    * A failed write stays pending, and is kept for a retry
+    * after a wait of POLL_TIME, doubled for each earlier attempt.
+    * After MAX_ATTEMPTS attempts it is dropped instead:
+    * its future fails, and the failure is recorded for its file.
+    */
+   private void write(List<Write> run) {
+      ByteBuffer[] bbs = new ByteBuffer[run.size()];
+      for (int i=0; i<bbs.length; i++)
+         bbs[i] = run.get(i).data;
+      Block first = run.get(0).blk;
+      try {
+         fm.writeBlocks(first.fileName(), first.number(), bbs);
+      }
+      catch (RuntimeException e) {
+         for (Write w : run) {
+            w.attempts++;
+            if (w.attempts < MAX_ATTEMPTS) {
+               w.retryTime = System.currentTimeMillis() + (POLL_TIME << (w.attempts - 1));
+               retries.add(w);
+            }
+            else {
+               failedFiles.add(w.blk.fileName());
+               pending.remove(w.blk, w);
+               w.done.completeExceptionally(e);
+            }
+         }
+         return;
+      }
+      for (Write w : run) {
+         pending.remove(w.blk, w);
+         w.done.complete(null);
+      }
+   }
+}
@@ -0,0 +1,127 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A database file that is accessed through memory mappings
+ * instead of read and write calls.
+ * The file is mapped in segments of {@link #SEGMENT_SIZE} bytes,
+ * each of which is mapped when one of its blocks is first accessed.
+ * The last segment of the file covers only the blocks that existed
+ * when it was mapped, and is mapped again when a later block of it
+ * is accessed, so that the mapping grows with the file.
+ * A block beyond the end of the file is not mapped at all;
+ * the file manager reads and writes such blocks
+ * (in particular, appended blocks) through the file's channel.
+ * <p>
+ * A write copies the page into the mapping.  Like a channel write,
+ * it becomes durable only when the file is {@link #force() forced}.
+ */
+class MappedFile {
+   /**
+    * The largest number of bytes mapped as a single segment.
+    */
+   static final int SEGMENT_SIZE = 64 << 20;
+
+   private FileChannel fc;
+   private int blocksize, blocksPerSegment;
+   private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+   /**
+    * Creates a mapped view of the specified file.
+    * No part of the file is mapped yet.
+    * @param fc the file's channel, which must be readable and writable
+    * @param blocksize the block size of the database
+    */
+   MappedFile(FileChannel fc, int blocksize) {
+      this.fc = fc;
+      this.blocksize = blocksize;
+      blocksPerSegment = Math.max(1, SEGMENT_SIZE / blocksize);
+   }
+
+   /**
+    * Copies the specified block of the mapping into a bytebuffer.
+    * @param blknum the block number
+    * @param bb the bytebuffer
+    * @return false if the block is beyond the end of the file
+    * @throws IOException
+    */
+   boolean read(int blknum, ByteBuffer bb) throws IOException {
+      MappedByteBuffer seg = segment(blknum);
+      if (seg == null)
+         return false;
+      bb.clear();
+      bb.put(view(seg, blknum));
+      return true;
+   }
+
+   /**
+    * Copies the contents of a bytebuffer into the specified block
+    * of the mapping.
+    * @param blknum the block number
+    * @param bb the bytebuffer
+    * @return false if the block is beyond the end of the file
+    * @throws IOException
+    */
+   boolean write(int blknum, ByteBuffer bb) throws IOException {
+      MappedByteBuffer seg = segment(blknum);
+      if (seg == null)
+         return false;
+      bb.rewind();
+      view(seg, blknum).put(bb);
+      return true;
+   }
+
+   /**
+    * Writes the modified pages of the mapping to disk.
+    */
+   void force() {
+      for (MappedByteBuffer seg : segments)
+         if (seg != null)
+            seg.force();
+   }
+
+   /**
+    * Returns a buffer positioned at the specified block
+    * of the segment and limited to the end of the block.
+    */
+   private ByteBuffer view(MappedByteBuffer seg, int blknum) {
+      ByteBuffer view = seg.duplicate();
+      int offset = (blknum % blocksPerSegment) * blocksize;
+      view.limit(offset + blocksize);
+      view.position(offset);
+      return view;
+   }
+
+   /**
+    * Returns the segment that maps the specified block,
+    * mapping or remapping the segment if necessary.
+    * The array of segments is replaced rather than modified,
+    * so that it can be read without locking.
+    */
+   private MappedByteBuffer segment(int blknum) throws IOException {
+      int i = blknum / blocksPerSegment;
+      int end = (blknum % blocksPerSegment + 1) * blocksize;
+      MappedByteBuffer[] segs = segments;
+      if (i < segs.length && segs[i] != null && segs[i].capacity() >= end)
+         return segs[i];
+      synchronized (this) {
+         segs = segments;
+         if (i < segs.length && segs[i] != null && segs[i].capacity() >= end)
+            return segs[i];
+         long start = (long) i * blocksPerSegment * blocksize;
+         long filesize = fc.size() / blocksize * blocksize;
+         if (start + end > filesize)
+            return null;
+         long length = Math.min((long) blocksPerSegment * blocksize, filesize - start);
+         MappedByteBuffer seg = fc.map(FileChannel.MapMode.READ_WRITE, start, length);
+         MappedByteBuffer[] newsegs = Arrays.copyOf(segs, Math.max(segs.length, i+1));
+         newsegs[i] = seg;
+         segments = newsegs;
+         return seg;
+      }
+   }
+}
@@ -0,0 +1,111 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An open database file, as kept in the file manager's
+ * cache of open files.
+ * Each use of the file's channel is bracketed by
+ * {@link #acquire()} and {@link #release()}, so that the
+ * file manager closes the channel only while no thread uses it.
+ * The count of users is kept without locking:
+ * a count of -1 means that the file has been closed,
+ * after which it can no longer be acquired, and the
+ * caller must look up the file again.
+ * A thread that must close the file while it is in use
+ * waits on the file's own monitor, and the last user to
+ * release the file wakes it up.
+ */
+class OpenFile {
+   private FileChannel fc;
+   private AtomicInteger users = new AtomicInteger(0);
+   private volatile long lastUse = System.nanoTime();
+   private volatile boolean closing = false;
+
+   OpenFile(FileChannel fc) {
+      this.fc = fc;
+   }
+
+   /**
+    * Returns the file's channel.
+    * The caller must have acquired the file.
+    * @return the file channel
+    */
+   FileChannel channel() {
+      return fc;
+   }
+
+   /**
+    * Registers the calling thread as a user of the file,
+    * unless the file has been closed.
+    * @return false if the file has been closed
+    */
+   boolean acquire() {
+      while (true) {
+         int n = users.get();
+         if (n < 0)
+            return false;
+         if (users.compareAndSet(n, n+1)) {
+            lastUse = System.nanoTime();
+            return true;
+         }
+      }
+   }
+
+   /**
+    * Unregisters a user of the file, and wakes up
+    * the thread waiting to close the file, if any,
+    * when the last user releases it.
+    */
+   void release() {
+      if (users.decrementAndGet() == 0 && closing) {
+         synchronized (this) {
+            notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Returns the time of the most recent acquisition,
+    * as given by {@link System#nanoTime()}.
+    * @return the time the file was last used
+    */
+   long lastUse() {
+      return lastUse;
+   }
+
+   /**
+    * Closes the file if no thread is using it.
+    * @return true if the file was closed
+    * @throws IOException
+    */
+   boolean closeIfUnused() throws IOException {
+      if (!users.compareAndSet(0, -1))
+         return false;
+      fc.close();
+      return true;
+   }
+
+   /**
+    * Closes the file, waiting until no thread is using it.
+    * The caller must hold no lock that a user of the file
+    * needs in order to release it.
+    * @throws IOException
+    */
+   synchronized void closeWhenUnused() throws IOException {
+      closing = true;
+      boolean interrupted = false;
+      while (!closeIfUnused()) {
+         try {
+            wait();
+         }
+         catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+}
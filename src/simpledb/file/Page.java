@@ -3,10 +3,15 @@ package simpledb.file;
 import simpledb.server.SimpleDB;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The contents of a disk block in memory.
- * A page is treated as an array of BLOCK_SIZE bytes.
+ * A page is treated as an array of bytes, whose length is
+ * the block size of the database (see {@link FileMgr#blockSize()}).
  * There are methods to get/set values into this array,
  * and to read/write the contents of this array to a disk block.
  * 
@@ -33,17 +38,14 @@ import java.nio.charset.Charset;
  * p3.read(blk);
  * String s = p3.getString(20);
  * </pre>
+ * The pages of the buffer pool are slices of a single
+ * {@link PageArena}.  Code that needs a page only briefly,
+ * such as a log iterator, should {@link #borrow() borrow} one
+ * from a shared pool and {@link #release(Page) release} it when done,
+ * because allocating off-heap memory is slow.
  * @author Edward Sciore
  */
 public class Page {
-   /**
-    * The number of bytes in a block.
-    * This value is set unreasonably low, so that it is easier
-    * to create and test databases having a lot of blocks.
-    * A more realistic value would be 4K.
-    */
-   public static final int BLOCK_SIZE = 400;
-   
    /**
     * The size of an integer in bytes.
     * This value is almost certainly 4, but it is
@@ -66,8 +68,12 @@ public class Page {
       return INT_SIZE + (n * (int)bytesPerChar);
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
+   private static final int MAX_POOLED = 16;
+   private static Queue<Page> pool = new ConcurrentLinkedQueue<Page>();
+   private static AtomicInteger poolSize = new AtomicInteger(0);
+   
    private FileMgr filemgr = SimpleDB.fileMgr();
+   private ByteBuffer contents;
    
    /**
     * Creates a new page.  Although the constructor takes no arguments,
@@ -81,7 +87,85 @@ public class Page {
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)}
     * is called first.
     */
-   public Page() {}
+   public Page() {
+      this(ByteBuffer.allocateDirect(SimpleDB.fileMgr().blockSize()));
+   }
+   
+   /**
+    * Creates a page whose contents are the specified byte buffer,
+    * such as a slice of a {@link PageArena}.
+    * The capacity of the buffer must be the block size.
+    * @param contents the memory of the page
+    */
+   public Page(ByteBuffer contents) {
+      this.contents = contents;
+   }
+   
+   /**
+    * Returns a page from the shared pool of transient pages,
+    * or a new page if the pool is empty.
+    * The contents of the page are unspecified.
+    * The caller should give the page back by calling
+    * {@link #release(Page)} once it no longer needs it.
+    * @return a page for temporary use
+    */
+   public static Page borrow() {
+      Page p = pool.poll();
+      if (p == null)
+         return new Page();
+      poolSize.decrementAndGet();
+      if (p.filemgr != SimpleDB.fileMgr())  // left over from a previous database
+         return new Page();
+      return p;
+   }
+   
+   /**
+    * Returns a borrowed page to the shared pool.
+    * The caller must not use the page afterwards.
+    * @param p the page being returned
+    */
+   public static void release(Page p) {
+      if (poolSize.incrementAndGet() <= MAX_POOLED)
+         pool.offer(p);
+      else
+         poolSize.decrementAndGet();
+   }
+   
+   /**
+    * Populates the specified pages with the contents of consecutive
+    * disk blocks, starting with the specified block,
+    * using a single scatter read.
+    * The pages must not be in use by other threads,
+    * because they are not locked.
+    * If the file ends first, then fewer blocks are read.
+    * @param first a reference to the first disk block
+    * @param pages the pages, of which the first count are used
+    * @param count the number of blocks to read
+    * @return the number of blocks read
+    */
+   public static int read(Block first, Page[] pages, int count) {
+      ByteBuffer[] bbs = new ByteBuffer[count];
+      for (int i=0; i<count; i++)
+         bbs[i] = pages[i].contents;
+      return pages[0].filemgr.readBlocks(first.fileName(), first.number(), count, bbs);
+   }
+   
+   /**
+    * Writes the specified pages to consecutive disk blocks,
+    * starting with the specified block,
+    * using a single gathering write.
+    * The pages must not be changed by other threads
+    * during the write, because they are not locked.
+    * @param first a reference to the first disk block
+    * @param pages the pages, of which the first count are used
+    * @param count the number of blocks to write
+    */
+   public static void write(Block first, Page[] pages, int count) {
+      ByteBuffer[] bbs = new ByteBuffer[count];
+      for (int i=0; i<count; i++)
+         bbs[i] = pages[i].contents;
+      pages[0].filemgr.writeBlocks(first.fileName(), first.number(), bbs);
+   }
    
    /**
     * Populates the page with the contents of the specified disk block. 
@@ -99,6 +183,24 @@ public class Page {
       filemgr.write(blk, contents);
    }
    
+   /**
+    * Writes the contents of the page to the specified disk block
+    * in the background, if the file manager's scheduler is running
+    * (see {@link FileMgr#startScheduler()}).
+    * The contents are copied first, so the page may be
+    * changed or reused as soon as the method returns.
+    * Until the write completes, reads of the block
+    * return the written contents.
+    * A block that is written this way should not also be
+    * written by {@link #write(Block)}, which is not ordered
+    * with respect to the background writes.
+    * @param blk a reference to a disk block
+    * @return a future that completes when the block has been written
+    */
+   public synchronized Future<Void> writeAsync(Block blk) {
+      return filemgr.writeAsync(blk, contents);
+   }
+   
    /**
     * Appends the contents of the page to the specified file.
     * @param filename the name of the file
@@ -108,6 +210,17 @@ public class Page {
       return filemgr.append(filename, contents);
    }
    
+   /**
+    * Sets every byte of the page to zero.
+    */
+   public synchronized void zero() {
+      contents.clear();
+      while (contents.remaining() >= 8)
+         contents.putLong(0);
+      while (contents.hasRemaining())
+         contents.put((byte) 0);
+   }
+   
    /**
     * Returns the integer value at a specified offset of the page.
     * If an integer was not stored at that location, 
@@ -130,6 +243,32 @@ public class Page {
       contents.putInt(val);
    }
    
+   /**
+    * Returns the specified number of bytes,
+    * starting at the specified offset of the page.
+    * @param offset the byte offset within the page
+    * @param n the number of bytes
+    * @return the bytes at that offset
+    */
+   public synchronized byte[] getBytes(int offset, int n) {
+      contents.position(offset);
+      byte[] val = new byte[n];
+      contents.get(val);
+      return val;
+   }
+   
+   /**
+    * Writes the specified bytes to the page,
+    * starting at the specified offset.
+    * Unlike a string, the bytes are not preceded by their length.
+    * @param offset the byte offset within the page
+    * @param val the bytes to be written to the page
+    */
+   public synchronized void setBytes(int offset, byte[] val) {
+      contents.position(offset);
+      contents.put(val);
+   }
+   
    /**
     * Returns the string value at the specified offset of the page.
     * If a string was not stored at that location,
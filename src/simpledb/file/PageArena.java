@@ -0,0 +1,77 @@
+package simpledb.file;
+
+import simpledb.server.SimpleDB;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A large region of off-heap memory that is divided
+ * into pages of the database's block size.
+ * The buffer manager allocates one arena for all of its
+ * buffers when it is created, instead of allocating
+ * a separate direct byte buffer for each page.
+ * An arena larger than a single byte buffer can hold
+ * is allocated as several chunks of up to {@link #CHUNK_SIZE} bytes.
+ * Each chunk is aligned to {@link #ALIGNMENT} bytes,
+ * so that when the block size is a multiple of the alignment,
+ * every page starts at the beginning of a memory page.
+ * The memory of an arena is released only when all of its
+ * pages are garbage.
+ */
+public class PageArena {
+   /**
+    * The alignment of the pages, in bytes.
+    */
+   public static final int ALIGNMENT = 4096;
+
+   /**
+    * The largest number of bytes allocated as a single chunk.
+    */
+   public static final int CHUNK_SIZE = 1 << 30;
+
+   private List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+   private int blocksize, pagesPerChunk, numpages;
+   private int next = 0;
+
+   /**
+    * Allocates an arena that holds the specified number of pages.
+    * This constructor depends on the {@link FileMgr} object
+    * that it gets from the class {@link SimpleDB},
+    * which determines the block size.
+    * @param numpages the number of pages in the arena
+    */
+   public PageArena(int numpages) {
+      this.numpages = numpages;
+      blocksize = SimpleDB.fileMgr().blockSize();
+      pagesPerChunk = Math.max(1, (CHUNK_SIZE - ALIGNMENT) / blocksize);
+      for (int remaining = numpages; remaining > 0; remaining -= pagesPerChunk) {
+         int n = Math.min(remaining, pagesPerChunk);
+         ByteBuffer chunk = ByteBuffer.allocateDirect(n * blocksize + ALIGNMENT);
+         chunks.add(chunk.alignedSlice(ALIGNMENT));
+      }
+   }
+
+   /**
+    * Returns a new page whose contents are the next
+    * unused slice of the arena.
+    * @return a new page
+    */
+   public synchronized Page newPage() {
+      if (next >= numpages)
+         throw new RuntimeException("page arena is exhausted");
+      ByteBuffer chunk = chunks.get(next / pagesPerChunk).duplicate();
+      int offset = (next % pagesPerChunk) * blocksize;
+      chunk.limit(offset + blocksize);
+      chunk.position(offset);
+      next++;
+      return new Page(chunk.slice());
+   }
+
+   /**
+    * Returns the number of pages in the arena.
+    * @return the capacity of the arena
+    */
+   public int size() {
+      return numpages;
+   }
+}
@@ -0,0 +1,114 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The compressed format of a page, which
+ * encodes runs of a repeated byte.
+ * The pages of temporary tables hold fixed-length records
+ * whose strings are padded with zeros, so most of their
+ * bytes are in long runs.
+ * <p>
+ * A compressed page is a sequence of tokens.
+ * Each token begins with a varint (seven bits per byte,
+ * low-order bits first).  If the varint is even, it is followed
+ * by a literal of half as many bytes; if it is odd, it is
+ * followed by a single byte, which is repeated half as many times.
+ */
+class PageCodec {
+   /**
+    * The shortest run of a repeated byte that is encoded as a run.
+    */
+   static final int MIN_RUN = 4;
+
+   /**
+    * Compresses the first n bytes of the array.
+    * @param src the bytes of the page
+    * @param n the number of bytes
+    * @param dst the array that receives the compressed bytes
+    * @return the length of the compressed bytes, or -1
+    * if they do not fit in the destination array
+    */
+   static int encode(byte[] src, int n, byte[] dst) {
+      int len = 0, literal = 0, i = 0;
+      while (i < n) {
+         int run = 1;
+         while (i + run < n && src[i + run] == src[i])
+            run++;
+         if (run < MIN_RUN) {
+            i += run;
+            continue;
+         }
+         if (literal < i && (len = putLiteral(src, literal, i, dst, len)) < 0)
+            return -1;
+         if ((len = putVarint(2 * run + 1, dst, len)) < 0 || len == dst.length)
+            return -1;
+         dst[len++] = src[i];
+         i += run;
+         literal = i;
+      }
+      if (literal < n)
+         len = putLiteral(src, literal, n, dst, len);
+      return len;
+   }
+
+   /**
+    * Decompresses bytes of the array into the bytebuffer,
+    * which must be filled exactly.
+    * @param src the array holding the compressed bytes
+    * @param from the position of the compressed bytes in the array
+    * @param n the number of compressed bytes
+    * @param bb the bytebuffer that receives the page
+    */
+   static void decode(byte[] src, int from, int n, ByteBuffer bb) {
+      bb.clear();
+      int i = from;
+      try {
+         while (i < from + n) {
+            int h = 0, shift = 0;
+            byte b;
+            do {
+               b = src[i++];
+               h |= (b & 0x7f) << shift;
+               shift += 7;
+            } while (b < 0);
+            int count = h >>> 1;
+            if ((h & 1) == 0) {
+               bb.put(src, i, count);
+               i += count;
+            }
+            else {
+               byte val = src[i++];
+               for (int j=0; j<count; j++)
+                  bb.put(val);
+            }
+         }
+      }
+      catch (RuntimeException e) {
+         throw new RuntimeException("corrupt compressed page");
+      }
+      if (bb.hasRemaining())
+         throw new RuntimeException("corrupt compressed page");
+   }
+
+   private static int putLiteral(byte[] src, int from, int to, byte[] dst, int len) {
+      len = putVarint(2 * (to - from), dst, len);
+      if (len < 0 || len + to - from > dst.length)
+         return -1;
+      System.arraycopy(src, from, dst, len, to - from);
+      return len + to - from;
+   }
+
+   private static int putVarint(int val, byte[] dst, int len) {
+      while (true) {
+         if (len == dst.length)
+            return -1;
+         if ((val & ~0x7f) == 0) {
+            dst[len++] = (byte) val;
+            return len;
+         }
+         dst[len++] = (byte) ((val & 0x7f) | 0x80);
+         val >>>= 7;
+      }
+   }
+}
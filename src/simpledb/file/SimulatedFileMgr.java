@@ -0,0 +1,444 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A file manager that simulates a disk, so that the effect
+ * of the buffer manager, the prefetcher or a sort algorithm on I/O
+ * can be measured reproducibly, whatever disk the machine has
+ * and whatever the operating system has cached.
+ * The file manager counts the blocks read and written in each file,
+ * and charges each transfer the latency of a simulated disk:
+ * a transfer that does not continue where the previous one ended
+ * pays a seek, and every block pays its transfer time.
+ * The latencies of a profile ({@link #HDD}, {@link #SSD} or
+ * {@link #NO_LATENCY}) can be changed with {@link #setLatency}.
+ * The sum of the latencies is the simulated disk time,
+ * which benchmarks can report alongside the elapsed time.
+ * <p>
+ * The simulated disk has a single head, so transfers are charged
+ * one at a time.  Unless delays are turned off, the thread making
+ * a transfer also sleeps for its latency, so that the simulated disk
+ * is as slow as the real one would be, and background reads and writes
+ * overlap the work of other threads as they would on that disk.
+ * Latencies shorter than {@link #MIN_DELAY} are added up and slept
+ * off together, since a thread cannot sleep for shorter times accurately.
+ * <p>
+ * Files are stored on disk as usual, unless the file manager
+ * keeps them in memory.  In-memory files disappear when
+ * the system stops, so the database is new at every startup.
+ * The {@link IOScheduler} is not used for in-memory files,
+ * since a write to memory is only a copy, and neither is
+ * the compression of temporary files; the simulated transfers
+ * are then always of whole blocks.
+ */
+public class SimulatedFileMgr extends FileMgr {
+   /**
+    * The profile of a hard disk: an 8 ms seek (including
+    * rotational delay), 100 MB/s transfers and an 8 ms force.
+    */
+   public static final String HDD = "hdd";
+
+   /**
+    * The profile of a solid-state disk: a 0.1 ms access time,
+    * 500 MB/s transfers and a 0.5 ms force.
+    */
+   public static final String SSD = "ssd";
+
+   /**
+    * The profile of a disk without latency,
+    * for counting transfers only.
+    */
+   public static final String NO_LATENCY = "none";
+
+   /**
+    * The shortest time, in nanoseconds, for which a thread sleeps.
+    */
+   public static final long MIN_DELAY = 1000000;
+
+   /**
+    * The transfers to and from a file.
+    */
+   private static class FileStats {
+      final AtomicLong blocksRead = new AtomicLong(0);
+      final AtomicLong blocksWritten = new AtomicLong(0);
+   }
+
+   private boolean inMemory;
+   private Map<String,List<ByteBuffer>> memFiles = new ConcurrentHashMap<String,List<ByteBuffer>>();
+   private Map<String,FileStats> stats = new ConcurrentHashMap<String,FileStats>();
+   private volatile boolean delaying = true;
+
+   // the state of the disk, guarded by the disk lock
+   private Object disk = new Object();
+   private long seekTime, transferTime, forceTime; // nanoseconds
+   private String headFile = null;
+   private int headBlock = -1;
+   private long seeks = 0, forces = 0;
+   private long simulatedTime = 0, delay = 0;
+
+   /**
+    * Creates a file manager for the specified database
+    * that simulates a disk with the specified profile.
+    * The database directory is created and its header is read
+    * as in {@link FileMgr#FileMgr(String, int)}, even if
+    * the files are kept in memory.
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size to use if the database is new
+    * @param profile the disk profile: HDD, SSD or NO_LATENCY
+    * @param inMemory whether the files are kept in memory
+    */
+   public SimulatedFileMgr(String dbname, int blocksize, String profile, boolean inMemory) {
+      super(dbname, blocksize, false);
+      this.inMemory = inMemory;
+      if (profile.equals(HDD))
+         setLatency(8000000, transferTime(100), 8000000);
+      else if (profile.equals(SSD))
+         setLatency(100000, transferTime(500), 500000);
+      else if (profile.equals(NO_LATENCY))
+         setLatency(0, 0, 0);
+      else
+         throw new RuntimeException("unknown disk profile " + profile);
+   }
+
+   /**
+    * Sets the latencies of the simulated disk.
+    * @param seekTime the nanoseconds taken to move to a block
+    * @param transferTime the nanoseconds taken to transfer a block
+    * @param forceTime the nanoseconds taken to force a file
+    */
+   public void setLatency(long seekTime, long transferTime, long forceTime) {
+      synchronized (disk) {
+         this.seekTime = seekTime;
+         this.transferTime = transferTime;
+         this.forceTime = forceTime;
+      }
+   }
+
+   /**
+    * Specifies whether threads sleep for the latency of their
+    * transfers.  If not, the latency only adds to the simulated time,
+    * which is then reproducible however loaded the machine is.
+    * @param delaying whether transfers are delayed
+    */
+   public void setDelaying(boolean delaying) {
+      this.delaying = delaying;
+   }
+
+   /**
+    * Returns the number of blocks read from the specified file.
+    * @param filename the name of the file
+    * @return the number of blocks read
+    */
+   public long blocksRead(String filename) {
+      FileStats st = stats.get(filename);
+      return (st == null) ? 0 : st.blocksRead.get();
+   }
+
+   /**
+    * Returns the number of blocks written to the specified file,
+    * including the free blocks written when the file grows.
+    * @param filename the name of the file
+    * @return the number of blocks written
+    */
+   public long blocksWritten(String filename) {
+      FileStats st = stats.get(filename);
+      return (st == null) ? 0 : st.blocksWritten.get();
+   }
+
+   /**
+    * Returns the number of blocks read from all files.
+    * @return the number of blocks read
+    */
+   public long blocksRead() {
+      long total = 0;
+      for (FileStats st : stats.values())
+         total += st.blocksRead.get();
+      return total;
+   }
+
+   /**
+    * Returns the number of blocks written to all files.
+    * @return the number of blocks written
+    */
+   public long blocksWritten() {
+      long total = 0;
+      for (FileStats st : stats.values())
+         total += st.blocksWritten.get();
+      return total;
+   }
+
+   /**
+    * Returns the names of the files that have been read or written,
+    * in alphabetical order.
+    * @return the names of the accessed files
+    */
+   public SortedSet<String> accessedFiles() {
+      return new TreeSet<String>(stats.keySet());
+   }
+
+   /**
+    * Returns the number of seeks made by the simulated disk.
+    * @return the number of seeks
+    */
+   public long seeks() {
+      synchronized (disk) {
+         return seeks;
+      }
+   }
+
+   /**
+    * Returns the number of times a file was forced.
+    * @return the number of forces
+    */
+   public long forces() {
+      synchronized (disk) {
+         return forces;
+      }
+   }
+
+   /**
+    * Returns the time the simulated disk has spent on transfers and forces.
+    * @return the simulated disk time, in nanoseconds
+    */
+   public long simulatedTime() {
+      synchronized (disk) {
+         return simulatedTime;
+      }
+   }
+
+   /**
+    * Sets all counts and the simulated time to zero.
+    */
+   public void resetStats() {
+      stats.clear();
+      synchronized (disk) {
+         seeks = forces = 0;
+         simulatedTime = 0;
+      }
+   }
+
+   /**
+    * Returns a description of the transfers and of the simulated
+    * disk time, suitable for the output of a benchmark.
+    */
+   public String toString() {
+      return String.format("%d blocks read, %d blocks written, %d seeks, %d forces, "
+                           + "%.1f ms simulated disk time",
+                           blocksRead(), blocksWritten(), seeks(), forces(),
+                           simulatedTime() / 1e6);
+   }
+
+   /**
+    * Returns true if the files are kept in memory,
+    * since the database is then always new.
+    * @see simpledb.file.FileMgr#isNew()
+    */
+   public boolean isNew() {
+      return inMemory || super.isNew();
+   }
+
+   /**
+    * Does not start the scheduler if the files are kept in memory.
+    * @see simpledb.file.FileMgr#startScheduler()
+    */
+   public synchronized void startScheduler() {
+      if (!inMemory)
+         super.startScheduler();
+   }
+
+   void read(Block blk, ByteBuffer bb) {
+      if (!inMemory) {
+         super.read(blk, bb);
+         return;
+      }
+      List<ByteBuffer> blocks = memFile(blk.fileName());
+      synchronized (blocks) {
+         copy(blocks, blk.number(), bb);
+      }
+      transferred(blk.fileName(), blk.number(), 1, blockSize(), false);
+   }
+
+   int readBlocks(String filename, int startblk, int count, ByteBuffer[] bbs) {
+      if (!inMemory)
+         return super.readBlocks(filename, startblk, count, bbs);
+      List<ByteBuffer> blocks = memFile(filename);
+      synchronized (blocks) {
+         count = Math.max(0, Math.min(count, blocks.size() - startblk));
+         for (int i=0; i<count; i++)
+            copy(blocks, startblk + i, bbs[i]);
+      }
+      if (count > 0)
+         transferred(filename, startblk, count, (long) count * blockSize(), false);
+      return count;
+   }
+
+   void write(Block blk, ByteBuffer bb) {
+      if (!inMemory) {
+         super.write(blk, bb);
+         return;
+      }
+      List<ByteBuffer> blocks = memFile(blk.fileName());
+      synchronized (blocks) {
+         store(blocks, blk.number(), bb);
+      }
+      transferred(blk.fileName(), blk.number(), 1, blockSize(), true);
+   }
+
+   void writeBlocks(String filename, int startblk, ByteBuffer[] bbs) {
+      if (!inMemory) {
+         super.writeBlocks(filename, startblk, bbs);
+         return;
+      }
+      List<ByteBuffer> blocks = memFile(filename);
+      synchronized (blocks) {
+         for (int i=0; i<bbs.length; i++)
+            store(blocks, startblk + i, bbs[i]);
+      }
+      transferred(filename, startblk, bbs.length, (long) bbs.length * blockSize(), true);
+   }
+
+   Block append(String filename, ByteBuffer bb) {
+      if (!inMemory)
+         return super.append(filename, bb);
+      List<ByteBuffer> blocks = memFile(filename);
+      Block blk;
+      synchronized (blocks) {
+         blk = new Block(filename, blocks.size());
+         store(blocks, blk.number(), bb);
+      }
+      transferred(filename, blk.number(), 1, blockSize(), true);
+      return blk;
+   }
+
+   public int size(String filename) {
+      if (!inMemory)
+         return super.size(filename);
+      List<ByteBuffer> blocks = memFiles.get(filename);
+      if (blocks == null)
+         return 0;
+      synchronized (blocks) {
+         return blocks.size();
+      }
+   }
+
+   public void force(String filename) {
+      if (!inMemory)
+         super.force(filename);
+      else if (!filename.startsWith("temp"))
+         forced(filename);
+   }
+
+   public void delete(String filename) {
+      if (!inMemory)
+         super.delete(filename);
+      else
+         memFiles.remove(filename);
+   }
+
+   /**
+    * Counts the transfer and charges its latency.
+    * The transfer time is charged for the bytes actually
+    * transferred, which are fewer than the bytes of the blocks
+    * if the file is compressed.
+    * @see simpledb.file.FileMgr#transferred(String, int, int, long, boolean)
+    */
+   void transferred(String filename, int startblk, int count, long bytes, boolean write) {
+      FileStats st = stats.get(filename);
+      if (st == null) {
+         stats.putIfAbsent(filename, new FileStats());
+         st = stats.get(filename);
+      }
+      if (write)
+         st.blocksWritten.addAndGet(count);
+      else
+         st.blocksRead.addAndGet(count);
+      synchronized (disk) {
+         long latency = bytes * transferTime / blockSize();
+         if (!filename.equals(headFile) || startblk != headBlock) {
+            latency += seekTime;
+            seeks++;
+         }
+         headFile = filename;
+         headBlock = startblk + count;
+         charge(latency);
+      }
+   }
+
+   /**
+    * Counts the force and charges its latency.
+    * @see simpledb.file.FileMgr#forced(String)
+    */
+   void forced(String filename) {
+      synchronized (disk) {
+         forces++;
+         charge(forceTime);
+      }
+   }
+
+   /**
+    * Adds the latency to the simulated time, and sleeps
+    * once enough latency has been added up.
+    * The caller holds the disk lock, so that
+    * other transfers wait for the simulated disk.
+    */
+   private void charge(long latency) {
+      simulatedTime += latency;
+      if (!delaying)
+         return;
+      delay += latency;
+      if (delay < MIN_DELAY)
+         return;
+      long deadline = System.nanoTime() + delay;
+      delay = 0;
+      long remaining;
+      while ((remaining = deadline - System.nanoTime()) > 0)
+         LockSupport.parkNanos(remaining);
+   }
+
+   private List<ByteBuffer> memFile(String filename) {
+      List<ByteBuffer> blocks = memFiles.get(filename);
+      if (blocks == null) {
+         memFiles.putIfAbsent(filename, new ArrayList<ByteBuffer>());
+         blocks = memFiles.get(filename);
+      }
+      return blocks;
+   }
+
+   /**
+    * Copies a block of an in-memory file into the bytebuffer.
+    * A block past the end of the file reads as zeros.
+    */
+   private void copy(List<ByteBuffer> blocks, int blknum, ByteBuffer bb) {
+      bb.clear();
+      if (blknum < blocks.size())
+         bb.put(blocks.get(blknum).duplicate().rewind());
+      else
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
+   }
+
+   /**
+    * Stores a copy of the bytebuffer as a block of an in-memory file,
+    * extending the file with zeroed blocks if necessary.
+    */
+   private void store(List<ByteBuffer> blocks, int blknum, ByteBuffer bb) {
+      while (blocks.size() <= blknum)
+         blocks.add(ByteBuffer.allocate(blockSize()));
+      ByteBuffer copy = blocks.get(blknum);
+      copy.clear();
+      copy.put(bb.duplicate().rewind());
+   }
+
+   /**
+    * Returns the nanoseconds taken to transfer a block
+    * at the specified rate.
+    */
+   private long transferTime(int megabytesPerSecond) {
+      return blockSize() * 1000L / megabytesPerSecond;
+   }
+}
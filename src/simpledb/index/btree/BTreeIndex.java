@@ -149,6 +149,8 @@ public class BTreeIndex implements Index {
     * @return the estimated traversal cost
     */
    public static int searchCost(int numblocks, int rpb) {
+      if (numblocks <= 1 || rpb <= 1)
+         return 1;
       return 1 + (int)(Math.log(numblocks) / Math.log(rpb));
    }
 }
@@ -5,6 +5,7 @@ import static simpledb.file.Page.*;
 import simpledb.file.Block;
 import simpledb.record.*;
 import simpledb.query.*;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 
 /**
@@ -19,6 +20,7 @@ public class BTreePage {
    private TableInfo ti;
    private Transaction tx;
    private int slotsize;
+   private int blocksize = SimpleDB.fileMgr().blockSize();
    
    /**
     * Opens a page for the specified B-tree block.
@@ -62,7 +64,7 @@ public class BTreePage {
     * @return true if the block is full
     */
    public boolean isFull() {
-      return slotpos(getNumRecs()+1) >= BLOCK_SIZE;
+      return slotpos(getNumRecs()+1) >= blocksize;
    }
    
    /**
@@ -170,10 +172,12 @@ public class BTreePage {
     * @param slot the slot of the deleted index record
     */
    public void delete(int slot) {
-      for (int i=slot+1; i<getNumRecs(); i++)
-         copyRecord(i, i-1);
-      setNumRecs(getNumRecs()-1);
-      return;
+      int n = getNumRecs();
+      if (slot+1 < n) {
+         byte[] recs = tx.getBytes(currentblk, slotpos(slot+1), (n-slot-1) * slotsize);
+         tx.setBytes(currentblk, slotpos(slot), recs);
+      }
+      setNumRecs(n-1);
    }
    
    /**
@@ -227,27 +231,37 @@ public class BTreePage {
    }
    
    private void insert(int slot) {
-      for (int i=getNumRecs(); i>slot; i--)
-         copyRecord(i-1, i);
-      setNumRecs(getNumRecs()+1);
+      insertRecs(slot, new byte[slotsize]);
    }
    
-   private void copyRecord(int from, int to) {
-      Schema sch = ti.schema();
-      for (String fldname : sch.fields())
-         setVal(to, fldname, getVal(from, fldname));
+   /**
+    * Inserts the specified records at the specified slot,
+    * shifting the following records to make room.
+    * The new records and the shifted ones are written
+    * as a single range of bytes, which needs a single log record,
+    * and so do later changes to the fields of the new records.
+    * @param slot the slot of the first new record
+    * @param recs the contents of the new records
+    */
+   private void insertRecs(int slot, byte[] recs) {
+      int n = getNumRecs();
+      byte[] range = new byte[recs.length + (n-slot) * slotsize];
+      System.arraycopy(recs, 0, range, 0, recs.length);
+      if (slot < n) {
+         byte[] shifted = tx.getBytes(currentblk, slotpos(slot), (n-slot) * slotsize);
+         System.arraycopy(shifted, 0, range, recs.length, shifted.length);
+      }
+      tx.setBytes(currentblk, slotpos(slot), range);
+      setNumRecs(n + recs.length / slotsize);
    }
    
    private void transferRecs(int slot, BTreePage dest) {
-      int destslot = 0;
-      while (slot < getNumRecs()) {
-         dest.insert(destslot);
-         Schema sch = ti.schema();
-         for (String fldname : sch.fields())
-            dest.setVal(destslot, fldname, getVal(slot, fldname));
-         delete(slot);
-         destslot++;
-      }
+      int n = getNumRecs();
+      if (slot >= n)
+         return;
+      byte[] recs = tx.getBytes(currentblk, slotpos(slot), (n-slot) * slotsize);
+      dest.insertRecs(0, recs);
+      setNumRecs(slot);
    }
    
    private int fldpos(int slot, String fldname) {
@@ -51,4 +51,16 @@ public class BasicLogRecord {
       pos += STR_SIZE(result.length());
       return result;
    }
+   
+   /**
+    * Returns the next value of the current log record, 
+    * assuming it is an array of bytes.
+    * @return the next value of the current log record
+    */
+   public byte[] nextBytes() {
+      int len = pg.getInt(pos);
+      byte[] result = pg.getBytes(pos + INT_SIZE, len);
+      pos += INT_SIZE + len;
+      return result;
+   }
 }
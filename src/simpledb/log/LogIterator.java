@@ -7,12 +7,15 @@ import java.util.Iterator;
 /**
  * A class that provides the ability to move through the
  * records of the log file in reverse order.
+ * The iterator reads the log through a page borrowed
+ * from the pool of transient pages, which it gives back
+ * when it is {@link #close() closed}.
  * 
  * @author Edward Sciore
  */
-class LogIterator implements Iterator<BasicLogRecord> {
+public class LogIterator implements Iterator<BasicLogRecord> {
    private Block blk;
-   private Page pg = new Page();
+   private Page pg = Page.borrow();
    private int currentrec;
    
    /**
@@ -54,6 +57,18 @@ class LogIterator implements Iterator<BasicLogRecord> {
       throw new UnsupportedOperationException();
    }
    
+   /**
+    * Returns the iterator's page to the pool of transient pages.
+    * The iterator, and the log records it returned,
+    * must not be used afterwards.
+    */
+   public void close() {
+      if (pg != null) {
+         Page.release(pg);
+         pg = null;
+      }
+   }
+   
    /**
     * Moves to the next log block in reverse order,
     * and positions it after the last record in that block.
@@ -9,10 +9,36 @@ import java.util.*;
  * The low-level log manager.
  * This log manager is responsible for writing log records
  * into a log file.
- * A log record can be any sequence of integer and string values.
+ * A log record can be any sequence of integer, string and byte array values.
  * The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link simpledb.tx.recovery.RecoveryMgr recovery manager}.
+ * <p>
+ * The LSN of a log record is its position in the log, in bytes:
+ * the block number times the block size, plus the offset of
+ * the record in its block.  LSNs thus increase with every record.
+ * The log manager keeps track of how much of the log is on disk,
+ * so that flushing a record that is already there costs nothing.
+ * <p>
+ * The log is buffered in a ring of pages, which hold the
+ * last blocks of the log.  Records are appended to the page of
+ * the last block; when a record does not fit, the appender
+ * moves on to the next page of the ring, and a background
+ * {@link LogWriter log writer} writes the full pages with a
+ * single call and forces them.  Appenders thus wait for a write
+ * only when every page of the ring is full.
+ * <p>
+ * Transactions that commit at the same time share a force
+ * of the log (group commit): one of them, the leader,
+ * writes the pages and forces the log file for all of them,
+ * while the others wait.  The log is forced without holding
+ * the log manager's lock, so the transactions that append
+ * or commit during a force are covered by the next one.
+ * The leader of a commit can also wait a short time before writing,
+ * to gather more committers (see {@link #setGroupCommitDelay(long)}).
+ * <p>
+ * When the server stops, {@link #shutdown()} stops the log writer
+ * and writes the pages still in the ring.
  * @author Edward Sciore
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
@@ -22,13 +48,29 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public static final int LAST_POS = 0;
 
+   /**
+    * The number of pages in the ring, unless specified otherwise.
+    */
+   public static final int DEFAULT_BUFFER_PAGES = 8;
+
    private String logfile;
-   private Page mypage = new Page();
+   private int blocksize = SimpleDB.fileMgr().blockSize();
+   private Page[] ring;
+   private Page mypage;         // the page of currentblk
    private Block currentblk;
    private int currentpos;
+   private int unwritten;       // the first full block whose page is not yet written
+   private long lastLSN = -1;   // negative means no record appended yet
+   private long flushedLSN;     // the records before this LSN are on disk
+   private boolean flushing = false;
+   private long groupDelay = 0; // nanoseconds
+   private long forces = 0;
+   private boolean stopped = false;
+   private LogWriter writer;
 
    /**
-    * Creates the manager for the specified log file.
+    * Creates the manager for the specified log file,
+    * with a ring of {@link #DEFAULT_BUFFER_PAGES} pages.
     * If the log file does not yet exist, it is created
     * with an empty first block.
     * This constructor depends on a {@link FileMgr} object
@@ -41,76 +83,263 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * @param logfile the name of the log file
     */
    public LogMgr(String logfile) {
+      this(logfile, DEFAULT_BUFFER_PAGES);
+   }
+
+   /**
+    * Creates the manager for the specified log file,
+    * with a ring of the specified number of pages,
+    * and starts its log writer.
+    * The ring has at least two pages, since the page of the
+    * last block cannot be reused until it is full and written.
+    * With two pages, an appender that moves to a new block
+    * waits for the log writer whenever the previous block
+    * has not yet been written.
+    * @param logfile the name of the log file
+    * @param numpages the number of pages in the ring
+    */
+   public LogMgr(String logfile, int numpages) {
       this.logfile = logfile;
+      ring = new Page[Math.max(2, numpages)];
+      for (int i=0; i<ring.length; i++)
+         ring[i] = new Page();
       int logsize = SimpleDB.fileMgr().size(logfile);
       if (logsize == 0)
          appendNewBlock();
       else {
          currentblk = new Block(logfile, logsize-1);
+         mypage = ring[currentblk.number() % ring.length];
          mypage.read(currentblk);
          currentpos = getLastRecordPosition() + INT_SIZE;
       }
+      unwritten = currentblk.number();
+      flushedLSN = position();
+      writer = new LogWriter(this);
+      writer.start();
+   }
+
+   /**
+    * Stops the log writer, and then writes and forces
+    * the pages still in the ring in the calling thread.
+    * Records appended afterwards are still accepted:
+    * an appender that needs a full page to be written
+    * writes it itself, and flushing works as before.
+    * Shutting down more than once has no further effect.
+    */
+   public void shutdown() {
+      synchronized (this) {
+         stopped = true;
+         notifyAll();
+      }
+      try {
+         writer.join();
+      }
+      catch (InterruptedException e) {
+         // the pages are written below
+      }
+      flushAll();
    }
 
    /**
     * Ensures that the log records corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * The method does nothing if the record is already on disk.
+    * Otherwise the calling thread waits for the current force
+    * of the log, if there is one, and then leads the next force
+    * unless the record has been forced in the meantime.
+    * The leader writes the page of the last block while holding
+    * the lock, and the full pages that the log writer has not yet
+    * written without it.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= currentLSN())
-         flush();
+   public void flush(long lsn) {
+      flush(lsn, false);
+   }
+
+   /**
+    * Ensures that the commit or rollback record having the
+    * specified LSN has been written to disk, as in {@link #flush(long)}.
+    * If the calling thread leads the force, it first waits for the
+    * group commit delay, so that more transactions can commit with it.
+    * The other flushes do not wait, since they are made by threads
+    * that may hold locks, such as a buffer manager writing a page.
+    * @param lsn the LSN of the commit record
+    */
+   public void flushCommit(long lsn) {
+      flush(lsn, true);
+   }
+
+   /**
+    * Ensures that all of the log records appended so far
+    * have been written to disk, as in {@link #flush(long)}.
+    */
+   public void flushAll() {
+      long lsn;
+      synchronized (this) {
+         lsn = lastLSN;
+      }
+      flush(lsn, false);
+   }
+
+   private void flush(long lsn, boolean gather) {
+      int first;
+      Page[] pages;
+      long end;
+      synchronized (this) {
+         while (true) {
+            if (lsn < flushedLSN)
+               return;
+            if (!flushing)
+               break;
+            try {
+               wait();
+            }
+            catch (InterruptedException e) {
+               throw new RuntimeException("interrupted while flushing the log");
+            }
+         }
+         flushing = true;
+         if (gather)
+            gatherCommitters();
+         mypage.write(currentblk);
+         end = position();
+         first = unwritten;
+         pages = fullPages();
+      }
+      writeAndForce(first, pages, end);
+   }
+
+   /**
+    * Waits until there are full pages that have not been written
+    * and no other thread is writing the log,
+    * and then writes and forces those pages.
+    * This method is called repeatedly by the {@link LogWriter},
+    * until the log manager is shut down.
+    * @return false if the log manager has been shut down
+    * @throws InterruptedException if the thread is interrupted while waiting
+    */
+   boolean writeFullPages() throws InterruptedException {
+      int first;
+      Page[] pages;
+      synchronized (this) {
+         while (!stopped && (flushing || unwritten == currentblk.number()))
+            wait();
+         if (stopped)
+            return false;
+         flushing = true;
+         first = unwritten;
+         pages = fullPages();
+      }
+      writeAndForce(first, pages, (long) (first + pages.length) * blocksize);
+      return true;
+   }
+
+   /**
+    * Sets the time for which the leader of a group commit
+    * waits before writing the log page, so that more
+    * transactions can join the group.
+    * A longer delay means fewer forces of the log when many
+    * transactions commit at once, but adds to the time of every commit.
+    * With no delay, a group consists of the transactions
+    * that committed during the previous force.
+    * @param micros the delay, in microseconds
+    */
+   public synchronized void setGroupCommitDelay(long micros) {
+      groupDelay = Math.max(0, micros) * 1000;
+   }
+
+   /**
+    * Returns the number of times the log file has been forced.
+    * @return the number of forces
+    */
+   public synchronized long forces() {
+      return forces;
    }
 
    /**
     * Returns an iterator for the log records,
     * which will be returned in reverse order starting with the most recent.
+    * The log is first flushed, so that the iterator can read
+    * every record from the log file.
     * @see java.lang.Iterable#iterator()
     */
-   public synchronized Iterator<BasicLogRecord> iterator() {
-      flush();
-      return new LogIterator(currentblk);
+   public LogIterator iterator() {
+      while (true) {
+         long lsn;
+         synchronized (this) {
+            if (lastLSN < flushedLSN)
+               return new LogIterator(currentblk);
+            lsn = lastLSN;
+         }
+         flush(lsn, false);
+      }
    }
 
    /**
     * Appends a log record to the file.
-    * The record contains an arbitrary array of strings and integers.
+    * The record contains an arbitrary array of strings, integers
+    * and byte arrays.
     * The method also writes an integer to the end of each log record whose value
     * is the offset of the corresponding integer for the previous log record.
     * These integers allow log records to be read in reverse order.
+    * If the record does not fit in the page of the last block,
+    * the method moves to the next page of the ring,
+    * first waiting for that page to be written if it is full,
+    * or writing it if the log writer has been stopped.
     * @param rec the list of values
-    * @return the LSN of the final value
+    * @return the LSN of the record
     */
-   public synchronized int append(Object[] rec) {
+   public synchronized long append(Object[] rec) {
       int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
       for (Object obj : rec)
          recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE){ // the log record doesn't fit,
-         flush();        // so move to the next block.
-         appendNewBlock();
+      while (currentpos > INT_SIZE && currentpos + recsize >= blocksize) { // the log record doesn't fit,
+         if (currentblk.number() + 1 - unwritten < ring.length) {
+            appendNewBlock();  // so move to the next block
+            notifyAll();       // and have the log writer write the full one,
+         }
+         else if (stopped && !flushing) {
+            flushing = true;   // or write the full pages here, if the writer has stopped.
+            writeAndForce(unwritten, fullPages(), (long) currentblk.number() * blocksize);
+         }
+         else {
+            try {
+               wait();         // once the log writer has made room for it.
+            }
+            catch (InterruptedException e) {
+               throw new RuntimeException("interrupted while appending to the log");
+            }
+         }
       }
+      lastLSN = position();
       for (Object obj : rec)
          appendVal(obj);
       finalizeRecord();
-      return currentLSN();
+      return lastLSN;
    }
 
    /**
     * Adds the specified value to the page at the position denoted by
     * currentpos.  Then increments currentpos by the size of the value.
-    * @param val the integer or string to be added to the page
+    * A byte array is preceded by its length.
+    * @param val the integer, string or byte array to be added to the page
     */
    private void appendVal(Object val) {
       if (val instanceof String)
          mypage.setString(currentpos, (String)val);
+      else if (val instanceof byte[]) {
+         byte[] bval = (byte[]) val;
+         mypage.setInt(currentpos, bval.length);
+         mypage.setBytes(currentpos + INT_SIZE, bval);
+      }
       else
          mypage.setInt(currentpos, (Integer)val);
       currentpos += size(val);
    }
 
    /**
-    * Calculates the size of the specified integer or string.
+    * Calculates the size of the specified integer, string or byte array.
     * @param val the value
     * @return the size of the value, in bytes
     */
@@ -119,31 +348,93 @@ public class LogMgr implements Iterable<BasicLogRecord> {
          String sval = (String) val;
          return STR_SIZE(sval.length());
       }
+      else if (val instanceof byte[])
+         return INT_SIZE + ((byte[]) val).length;
       else
          return INT_SIZE;
    }
 
    /**
-    * Returns the LSN of the most recent log record.
-    * As implemented, the LSN is the block number where the record is stored.
-    * Thus every log record in a block has the same LSN.
-    * @return the LSN of the most recent log record
+    * Returns the position in the log of the end of the
+    * current page's records, which is the LSN
+    * that the next log record will have if it fits in the page.
+    * @return the position of currentpos in the log
     */
-   private int currentLSN() {
-      return currentblk.number();
+   private long position() {
+      return (long) currentblk.number() * blocksize + currentpos;
    }
 
    /**
-    * Writes the current page to the log file.
+    * Returns the pages of the full blocks that have not
+    * been written, in block order.
+    * @return the pages of the blocks from unwritten to the last block, exclusive
     */
-   private void flush() {
-      mypage.write(currentblk);
+   private Page[] fullPages() {
+      Page[] pages = new Page[currentblk.number() - unwritten];
+      for (int i=0; i<pages.length; i++)
+         pages[i] = ring[(unwritten + i) % ring.length];
+      return pages;
+   }
+
+   /**
+    * Writes the specified full pages to consecutive blocks
+    * with a single call, and forces the log file.
+    * The method is called without holding the lock, by the thread
+    * that set the flushing flag; no appender changes the pages,
+    * since their blocks are full.
+    * Afterwards, the pages can be reused, the records before the
+    * specified LSN are known to be on disk, and the flushing flag
+    * is cleared.
+    * @param first the block number of the first page
+    * @param pages the pages
+    * @param end the LSN up to which the log is on disk after the force
+    */
+   private void writeAndForce(int first, Page[] pages, long end) {
+      boolean forced = false;
+      try {
+         if (pages.length > 0)
+            Page.write(new Block(logfile, first), pages, pages.length);
+         SimpleDB.fileMgr().force(logfile);
+         forced = true;
+      }
+      finally {
+         synchronized (this) {
+            if (forced) {
+               unwritten = Math.max(unwritten, first + pages.length);
+               flushedLSN = Math.max(flushedLSN, end);
+               forces++;
+            }
+            flushing = false;
+            notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Waits for the group commit delay, releasing the lock
+    * so that other transactions can append their commit records
+    * and join the group.  An interrupt ends the wait early.
+    */
+   private void gatherCommitters() {
+      long deadline = System.nanoTime() + groupDelay;
+      long remaining;
+      while ((remaining = deadline - System.nanoTime()) > 0) {
+         try {
+            wait(remaining / 1000000, (int) (remaining % 1000000));
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
    }
 
    /**
-    * Clear the current page, and append it to the log file.
+    * Clear the next page of the ring, and append it to the log file.
     */
    private void appendNewBlock() {
+      int blknum = (currentblk == null) ? 0 : currentblk.number() + 1;
+      mypage = ring[blknum % ring.length];
       setLastRecordPosition(0);
       currentpos = INT_SIZE;
       currentblk = mypage.append(logfile);
@@ -0,0 +1,37 @@
+package simpledb.log;
+
+/**
+ * A background thread that writes the full pages of the
+ * log manager's ring, so that appenders can fill the next page
+ * while the previous ones are written.
+ * Each round writes all of the full pages that are waiting,
+ * which are consecutive blocks, with a single call,
+ * and forces the log.
+ * The thread ends when the log manager is shut down
+ * (see {@link LogMgr#shutdown()}).
+ */
+class LogWriter extends Thread {
+   private LogMgr logMgr;
+
+   /**
+    * Creates a writer for the specified log manager.
+    * The thread is a daemon, and so does not keep
+    * the server running.
+    * @param logMgr the log manager
+    */
+   LogWriter(LogMgr logMgr) {
+      super("log writer");
+      this.logMgr = logMgr;
+      setDaemon(true);
+   }
+
+   public void run() {
+      try {
+         while (logMgr.writeFullPages())
+            ;
+      }
+      catch (InterruptedException e) {
+         // the writer has been stopped
+      }
+   }
+}
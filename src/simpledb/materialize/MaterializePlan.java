@@ -1,6 +1,6 @@
 package simpledb.materialize;
 
-import static simpledb.file.Page.BLOCK_SIZE;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -26,14 +26,15 @@ public class MaterializePlan implements Plan {
    /**
     * This method loops through the underlying query,
     * copying its output records into a temporary table.
-    * It then returns a table scan for that table.
+    * It then returns a table scan for that table,
+    * which deletes the table when it is closed.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
       Schema sch = srcplan.schema();
       TempTable temp = new TempTable(sch, tx);
       Scan src = srcplan.open();
-      UpdateScan dest = temp.open();
+      UpdateScan dest = temp.openDeletingOnClose();
       while (src.next()) {
          dest.insert();
          for (String fldname : sch.fields())
@@ -54,7 +55,7 @@ public class MaterializePlan implements Plan {
    public int blocksAccessed() {
       // create a dummy TableInfo object to calculate record length
       TableInfo ti = new TableInfo("", srcplan.schema());
-      double rpb = (double) (BLOCK_SIZE / ti.recordLength());
+      double rpb = (double) (SimpleDB.fileMgr().blockSize() / ti.recordLength());
       return (int) Math.ceil(srcplan.recordsOutput() / rpb);
    }
    
@@ -1,6 +1,8 @@
 package simpledb.materialize;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.*;
+import simpledb.server.SimpleDB;
 import simpledb.record.*;
 import simpledb.query.*;
 
@@ -100,16 +102,17 @@ public class SortPlan implements Plan {
       src.beforeFirst();
       if (!src.next())
          return temps;
+      BufferRing ring = SimpleDB.bufferMgr().newRing();
       TempTable currenttemp = new TempTable(sch, tx);
       temps.add(currenttemp);
-      UpdateScan currentscan = currenttemp.open();
+      UpdateScan currentscan = currenttemp.open(ring);
       while (copy(src, currentscan))
          if (comp.compare(src, currentscan) < 0) {
          // start a new run
          currentscan.close();
          currenttemp = new TempTable(sch, tx);
          temps.add(currenttemp);
-         currentscan = (UpdateScan) currenttemp.open();
+         currentscan = currenttemp.open(ring);
       }
       currentscan.close();
       return temps;
@@ -128,10 +131,11 @@ public class SortPlan implements Plan {
    }
    
    private TempTable mergeTwoRuns(TempTable p1, TempTable p2) {
-      Scan src1 = p1.open();
-      Scan src2 = p2.open();
+      BufferMgr bm = SimpleDB.bufferMgr();
+      Scan src1 = p1.open(bm.newRing());
+      Scan src2 = p2.open(bm.newRing());
       TempTable result = new TempTable(sch, tx);
-      UpdateScan dest = result.open();
+      UpdateScan dest = result.open(bm.newRing());
       
       boolean hasmore1 = src1.next();
       boolean hasmore2 = src2.next();
@@ -150,6 +154,8 @@ public class SortPlan implements Plan {
       src1.close();
       src2.close();
       dest.close();
+      p1.delete();
+      p2.delete();
       return result;
    }
    
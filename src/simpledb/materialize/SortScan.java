@@ -24,16 +24,19 @@ public class SortScan implements Scan {
    private UpdateScan table;
    private TableInfo tblinfo;
    private Transaction tx;
+   private List<TempTable> runs;
    
    /**
     * Creates a sort scan, given a list of 1 or 2 runs.
     * If there is only 1 run, then s2 will be null and
     * hasmore2 will be false.
+    * The runs are deleted when the scan is closed.
     * @param runs the list of runs
     * @param comp the record comparator
     */
    public SortScan(List<TempTable> runs, RecordComparator comp, TablePlan tp, Transaction tx) {
       this.comp = comp;
+      this.runs = runs;
       s1 = (UpdateScan) runs.get(0).open();
       hasmore1 = s1.next();
       if (runs.size() > 1) {
@@ -126,7 +129,8 @@ public class SortScan implements Scan {
    }
 
    /**
-    * Closes the two underlying scans.
+    * Closes the two underlying scans,
+    * and deletes the runs.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
@@ -134,6 +138,9 @@ public class SortScan implements Scan {
       if (s2 != null)
          s2.close();
       table.close();
+      if (runs != null)
+         for (TempTable run : runs)
+            run.delete();
    }
    
    /**
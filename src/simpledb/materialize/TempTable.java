@@ -1,6 +1,8 @@
 package simpledb.materialize;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
+import simpledb.server.SimpleDB;
 import simpledb.record.*;
 import simpledb.query.*;
 
@@ -9,6 +11,10 @@ import simpledb.query.*;
  * A temporary table is not registered in the catalog.
  * The class therefore has a method getTableInfo to return the 
  * table's metadata. 
+ * A temporary table is deleted as soon as it is no longer needed,
+ * rather than at the next system startup, and its file is then
+ * usually kept as a spare for a later temporary table
+ * (see {@link simpledb.file.FileMgr#delete(String)}).
  * @author Edward Sciore
  */
 public class TempTable {
@@ -35,6 +41,40 @@ public class TempTable {
       return new TableScan(ti, tx);
    }
    
+   /**
+    * Opens a table scan for the temporary table,
+    * which reads or writes the table through the specified buffer ring.
+    * @param ring the buffer ring, or null
+    */
+   public UpdateScan open(BufferRing ring) {
+      return new TableScan(ti, tx, ring);
+   }
+   
+   /**
+    * Opens a table scan for the temporary table,
+    * which deletes the table when the scan is closed.
+    * The scan must be the last user of the table.
+    */
+   public UpdateScan openDeletingOnClose() {
+      return new TableScan(ti, tx) {
+         public void close() {
+            super.close();
+            TempTable.this.delete();
+         }
+      };
+   }
+   
+   /**
+    * Deletes the table.
+    * The table's blocks are removed from the buffer pool
+    * without being written, and its file is deleted.
+    * All scans of the table must have been closed.
+    */
+   public void delete() {
+      SimpleDB.bufferMgr().discard(ti.fileName());
+      SimpleDB.fileMgr().delete(ti.fileName());
+   }
+   
    /**
     * Return the table's metadata.
     * @return the table's metadata
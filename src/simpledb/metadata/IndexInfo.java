@@ -1,7 +1,7 @@
 package simpledb.metadata;
 
 import static java.sql.Types.INTEGER;
-import static simpledb.file.Page.BLOCK_SIZE;
+import static simpledb.file.Page.INT_SIZE;
 
 import simpledb.index.hash.ExtensibleHashIndex;
 import simpledb.server.SimpleDB;
@@ -69,11 +69,19 @@ public class IndexInfo {
     * It then passes this information to the traversalCost
     * method of the appropriate index type,
     * which provides the estimate.
+    * Both values depend on the block size of the database.
     * @return the number of block accesses required to traverse the index
     */
    public int blocksAccessed() {
       TableInfo idxti = new TableInfo("", schema());
-      int rpb = BLOCK_SIZE / idxti.recordLength();
+      int blocksize = SimpleDB.fileMgr().blockSize();
+      if (idxtype.equals("bt")) {
+         // a B-tree page begins with its flag and record count
+         int rpb = (blocksize - 2*INT_SIZE) / idxti.recordLength();
+         int numblocks = si.recordsOutput() / rpb;
+         return BTreeIndex.searchCost(numblocks, rpb);
+      }
+      int rpb = blocksize / idxti.recordLength();
       int numblocks = si.recordsOutput() / rpb;
       // Call HashIndex.searchCost for hash indexing
       return HashIndex.searchCost(numblocks, rpb);
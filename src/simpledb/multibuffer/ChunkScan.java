@@ -4,6 +4,8 @@ import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
+import simpledb.server.SimpleDB;
 import simpledb.query.*;
 
 import java.util.ArrayList;
@@ -27,15 +29,40 @@ public class ChunkScan implements Scan {
     * @param tx the current transaction
     */ 
    public ChunkScan(TableInfo ti, int startbnum, int endbnum, Transaction tx) {
+      this(ti, startbnum, endbnum, tx, null);
+   }
+   
+   /**
+    * Creates a chunk consisting of the specified pages,
+    * which are read into the buffers of the specified ring.
+    * A ring at least as large as the chunk lets
+    * consecutive chunks reuse the same buffers.
+    * Unless multi-block reads are disabled, the blocks of
+    * the chunk are read with as few calls as possible
+    * (see {@link simpledb.buffer.BufferMgr#pinRange}).
+    * @param ti the metadata for the chunked table
+    * @param startbnum the starting block number
+    * @param endbnum  the ending block number
+    * @param tx the current transaction
+    * @param ring the buffer ring, or null
+    */ 
+   public ChunkScan(TableInfo ti, int startbnum, int endbnum, Transaction tx, BufferRing ring) {
       pages = new ArrayList<RecordPage>();
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
       this.sch = ti.schema();
       String filename = ti.fileName();
+      int count = endbnum - startbnum + 1;
+      boolean readRun = SimpleDB.bufferMgr().runSize() > 1 && count > 1;
+      if (readRun)
+         tx.pinRange(filename, startbnum, count, ring);
       for (int i=startbnum; i<=endbnum; i++) {
          Block blk = new Block(filename, i);
-         pages.add(new RecordPage(blk, ti, tx));
+         pages.add(new RecordPage(blk, ti, tx, ring));
       }
+      if (readRun)
+         for (int i=startbnum; i<=endbnum; i++)
+            tx.unpin(new Block(filename, i));
       beforeFirst();
    }
    
@@ -38,14 +38,20 @@ public class MultiBufferProductPlan implements Plan {
     * number of available buffers.
     * It creates a chunk plan for each chunk, saving them in a list.
     * Finally, it creates a multiscan for this list of plans,
-    * and returns that scan.
+    * and returns that scan, which deletes the materialized
+    * RHS when it is closed.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
-      TempTable tt = copyRecordsFrom(rhs);
+      final TempTable tt = copyRecordsFrom(rhs);
       TableInfo ti = tt.getTableInfo();
       Scan leftscan = lhs.open();
-      return new MultiBufferProductScan(leftscan, ti, tx);
+      return new MultiBufferProductScan(leftscan, ti, tx) {
+         public void close() {
+            super.close();
+            tt.delete();
+         }
+      };
    }
    
    /**
@@ -103,7 +109,7 @@ public class MultiBufferProductPlan implements Plan {
       Scan   src = p.open(); 
       Schema sch = p.schema();
       TempTable tt = new TempTable(sch, tx);
-      UpdateScan dest = (UpdateScan) tt.open();
+      UpdateScan dest = tt.open(SimpleDB.bufferMgr().newRing());
       while (src.next()) {
          dest.insert();
          for (String fldname : sch.fields())
@@ -1,12 +1,18 @@
 package simpledb.multibuffer;
 
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
+import simpledb.buffer.BufferReservation;
+import simpledb.server.SimpleDB;
 import simpledb.record.TableInfo;
 import simpledb.query.*;
 
 /** 
  * The Scan class for the muti-buffer version of the
  * <i>product</i> operator.
+ * The size of the chunks is determined by the number of
+ * buffers that the scan is able to reserve when it is created;
+ * the reservation is released when the scan is closed.
  * @author Edward Sciore
  */
 public class MultiBufferProductScan implements Scan {
@@ -14,6 +20,8 @@ public class MultiBufferProductScan implements Scan {
    private TableInfo ti;
    private Transaction tx;
    private int chunksize, nextblknum, filesize;
+   private BufferRing ring;
+   private BufferReservation reservation;
    
    
    /**
@@ -27,7 +35,9 @@ public class MultiBufferProductScan implements Scan {
       this.ti = ti;
       this.tx = tx;
       filesize = tx.size(ti.fileName());
-      chunksize = BufferNeeds.bestFactor(filesize);
+      reservation = tx.reserveBuffers(1, filesize);
+      chunksize = BufferNeeds.bestFactor(filesize, reservation.size());
+      ring = SimpleDB.bufferMgr().newRing(chunksize);
       beforeFirst();
    }
    
@@ -58,11 +68,13 @@ public class MultiBufferProductScan implements Scan {
    }
    
    /**
-    * Closes the current scans.
+    * Closes the current scans,
+    * and releases the scan's buffer reservation.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
       prodscan.close();
+      reservation.release();
    }
    
    /** 
@@ -112,7 +124,7 @@ public class MultiBufferProductScan implements Scan {
       int end = nextblknum + chunksize - 1;
       if (end >= filesize)
          end = filesize - 1;
-      rhsscan = new ChunkScan(ti, nextblknum, end, tx);
+      rhsscan = new ChunkScan(ti, nextblknum, end, tx, ring);
       lhsscan.beforeFirst();
       prodscan = new ProductScan(lhsscan, rhsscan);
       nextblknum = end + 1;
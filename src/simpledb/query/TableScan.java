@@ -2,6 +2,7 @@ package simpledb.query;
 
 import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.record.*;
 
 /**
@@ -25,7 +26,22 @@ public class TableScan implements UpdateScan {
     * CS4432-Project2: Modified constructor to reset sorted flag to false, in case data is updated.
     */
    public TableScan(TableInfo ti, Transaction tx) {
-      rf  = new RecordFile(ti, tx);
+      this(ti, new RecordFile(ti, tx));
+   }
+   
+   /**
+    * Creates a new table scan whose record file
+    * is scanned or filled using the specified buffer ring.
+    * @param ti the table's metadata
+    * @param tx the calling transaction
+    * @param ring the buffer ring, or null
+    */
+   public TableScan(TableInfo ti, Transaction tx, BufferRing ring) {
+      this(ti, new RecordFile(ti, tx, ring));
+   }
+   
+   private TableScan(TableInfo ti, RecordFile rf) {
+      this.rf = rf;
       sch = ti.schema();
 
       ti.setSorted(false);
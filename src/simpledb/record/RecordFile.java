@@ -1,12 +1,20 @@
 package simpledb.record;
 
 import simpledb.file.Block;
+import simpledb.buffer.*;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 
 /**
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * The blocks that are reached by moving sequentially
+ * through the file are pinned through a {@link BufferRing}
+ * when the file is large, so that a full scan does not
+ * replace the rest of the buffer pool.
+ * A sequential scan reads the blocks ahead of it
+ * through a {@link ReadAhead}.
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -15,19 +23,37 @@ public class RecordFile {
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private BufferRing ring;
+   private ReadAhead readAhead;
    
    /**
     * Constructs an object to manage a file of records.
     * If the file does not exist, it is created.
+    * A buffer ring is used if the file is large
+    * compared to the buffer pool.
     * @param ti the table metadata
     * @param tx the transaction
     */
    public RecordFile(TableInfo ti, Transaction tx) {
+      this(ti, tx, SimpleDB.bufferMgr().newRingFor(tx.size(ti.fileName())));
+   }
+   
+   /**
+    * Constructs an object to manage a file of records,
+    * which is scanned or filled using the specified buffer ring.
+    * If the file does not exist, it is created.
+    * @param ti the table metadata
+    * @param tx the transaction
+    * @param ring the buffer ring, or null to use the replacement policy
+    */
+   public RecordFile(TableInfo ti, Transaction tx, BufferRing ring) {
       this.ti = ti;
       this.tx = tx;
+      this.ring = ring;
       filename = ti.fileName();
       if (tx.size(filename) == 0)
          appendBlock();
+      readAhead = new ReadAhead(filename, ring);
       moveTo(0);
    }
    
@@ -36,6 +62,7 @@ public class RecordFile {
     */
    public void close() {
       rp.close();
+      readAhead.close();
    }
    
    /**
@@ -57,7 +84,7 @@ public class RecordFile {
             return true;
          if (atLastBlock())
             return false;
-         moveTo(currentblknum + 1);
+         moveTo(currentblknum + 1, ring);
       }
    }
    
@@ -122,7 +149,7 @@ public class RecordFile {
       while (!rp.insert()) {
          if (atLastBlock())
             appendBlock();
-         moveTo(currentblknum + 1);
+         moveTo(currentblknum + 1, ring);
       }
    }
    
@@ -146,11 +173,19 @@ public class RecordFile {
    }
    
    private void moveTo(int b) {
+      moveTo(b, null);
+   }
+   
+   private void moveTo(int b, BufferRing ring) {
       if (rp != null)
          rp.close();
+      if (b == currentblknum + 1)
+         readAhead.moveTo(b, tx.size(filename));
+      else
+         readAhead.moveTo(b, 0);
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = new RecordPage(blk, ti, tx, ring);
    }
    
    private boolean atLastBlock() {
@@ -159,6 +194,6 @@ public class RecordFile {
    
    private void appendBlock() {
       RecordFormatter fmtr = new RecordFormatter(ti);
-      tx.append(filename, fmtr);
+      tx.append(filename, fmtr, ring);
    }
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import static simpledb.file.Page.*;
 import static simpledb.record.RecordPage.EMPTY;
 import simpledb.file.Page;
 import simpledb.buffer.PageFormatter;
+import simpledb.server.SimpleDB;
 
 /**
  * An object that can format a page to look like a block of 
@@ -28,11 +29,17 @@ class RecordFormatter implements PageFormatter {
     * Each record slot is assigned a flag of EMPTY.
     * Each integer field is given a value of 0, and
     * each string field is given a value of "".
+    * The page is zeroed first, so that the unused bytes
+    * of the strings do not keep the contents of whatever
+    * block the page held before; pages of zeros
+    * compress well (see {@link simpledb.file.FileMgr#setCompressTempFiles(boolean)}).
     * @see simpledb.buffer.PageFormatter#format(simpledb.file.Page)
     */
    public void format(Page page) {
       int recsize = ti.recordLength() + INT_SIZE;
-      for (int pos=0; pos+recsize<=BLOCK_SIZE; pos += recsize) {
+      int blocksize = SimpleDB.fileMgr().blockSize();
+      page.zero();
+      for (int pos=0; pos+recsize<=blocksize; pos += recsize) {
          page.setInt(pos, EMPTY);
          makeDefaultRecord(page, pos);
       }
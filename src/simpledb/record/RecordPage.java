@@ -1,7 +1,10 @@
 package simpledb.record;
 
 import static simpledb.file.Page.*;
+import java.nio.ByteBuffer;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 
 /**
@@ -15,6 +18,7 @@ public class RecordPage {
    private TableInfo ti;
    private Transaction tx;
    private int slotsize;
+   private int blocksize = SimpleDB.fileMgr().blockSize();
    private int currentslot = -1;
    
    /** Creates the record manager for the specified block.
@@ -24,11 +28,24 @@ public class RecordPage {
      * @param tx the transaction performing the operations
      */
    public RecordPage(Block blk, TableInfo ti, Transaction tx) {
+      this(blk, ti, tx, null);
+   }
+   
+   /** Creates the record manager for the specified block,
+     * which is pinned on behalf of a one-pass scan
+     * that recycles the buffers of the specified ring.
+     * The current record is set to be prior to the first one.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     * @param ring the scan's buffer ring, or null
+     */
+   public RecordPage(Block blk, TableInfo ti, Transaction tx, BufferRing ring) {
       this.blk = blk;
       this.ti = ti;
       this.tx = tx;
       slotsize = ti.recordLength() + INT_SIZE;
-      tx.pin(blk);
+      tx.pin(blk, ring);
   }
    
    /**
@@ -106,6 +123,9 @@ public class RecordPage {
    
    /**
     * Inserts a new, blank record somewhere in the page.
+    * The whole slot is written at once, with its flag set
+    * and its fields zeroed, so that the insertion and the
+    * setting of the new record's fields need a single log record.
     * Return false if there were no available slots.
     * @return false if the insertion was not possible
     */
@@ -114,7 +134,9 @@ public class RecordPage {
       boolean found = searchFor(EMPTY);
       if (found) {
          int position = currentpos();
-         tx.setInt(blk, position, INUSE);
+         byte[] slot = new byte[slotsize];
+         ByteBuffer.wrap(slot).putInt(INUSE);
+         tx.setBytes(blk, position, slot);
       }
       return found;
    }
@@ -146,7 +168,7 @@ public class RecordPage {
    }
    
    private boolean isValidSlot() {
-      return currentpos() + slotsize <= BLOCK_SIZE;
+      return currentpos() + slotsize <= blocksize;
    }
    
    private boolean searchFor(int flag) {
@@ -1,6 +1,7 @@
 package simpledb.server;
 
 import simpledb.file.FileMgr;
+import simpledb.file.SimulatedFileMgr;
 import simpledb.buffer.*;
 import simpledb.opt.ExploitSortQueryPlanner;
 import simpledb.tx.Transaction;
@@ -19,21 +20,56 @@ import simpledb.index.planner.IndexUpdatePlanner;
  * and {@link #initMetadataMgr(boolean, Transaction) initMetadataMgr}
  * provide limited initialization, and are useful for 
  * debugging purposes.
+ * The optional subsystems of the file and buffer managers
+ * (partitions, background flushing, scan rings, multi-block reads,
+ * prefetching, the I/O scheduler and warm restarts) are off by default,
+ * so that the system behaves as the basic SimpleDB does;
+ * a program turns them on by setting the corresponding
+ * fields before calling {@link #init(String) init}.
  * 
  * @author Edward Sciore
  */
 public class SimpleDB {
+   public static int BLOCK_SIZE = 4096; // used only when creating a new database
    public static int BUFFER_SIZE = 8;
+   public static String BUFFER_POLICY = ReplacementPolicy.LRU;
+   public static int BUFFER_PARTITIONS = 1; // more partitions reduce contention between concurrent clients
+   public static double DIRTY_HIGH_WATER = 1; // a value of 1 disables background flushing
+   public static double DIRTY_LOW_WATER  = 0.25;
+   public static int BUFFER_RING_SIZE = 0; // a value of 0 disables scan rings
+   public static int READ_RUN_SIZE = 1; // blocks read at once by sequential scans; 1 disables multi-block reads
+   public static boolean PREFETCH = false; // read ahead of sequential scans in a background thread
+   public static long BUFFER_WAIT_TIME = 10000; // milliseconds before a pin is aborted
+   public static long HOT_BLOCK_INTERVAL = 0; // milliseconds between saves; 0 disables warm restarts
+   public static boolean MAPPED_FILES = false; // access files through memory mappings
+   public static boolean IO_SCHEDULER = false; // write buffers in the background, sorted and merged
+   public static int FILE_EXTENT_SIZE = 1 << 20; // largest number of bytes by which a file grows at once
+   public static int MAX_OPEN_FILES = FileMgr.DEFAULT_MAX_OPEN_FILES; // least recently used files are closed beyond this
+   public static boolean COMPRESS_TEMP_FILES = false; // store the pages of temporary tables compressed
+   public static String SIMULATED_DISK = System.getProperty("simpledb.disk"); // "hdd", "ssd" or "none"; null uses the real disk
+   public static boolean SIMULATED_DISK_IN_MEMORY = Boolean.getBoolean("simpledb.disk.inmemory");
+   public static boolean SIMULATED_DISK_DELAYS = true; // sleep for the simulated latency
    public static String LOG_FILE = "simpledb.log";
+   public static int LOG_BUFFER_PAGES = LogMgr.DEFAULT_BUFFER_PAGES; // pages in the log's ring buffer
+   public static long GROUP_COMMIT_DELAY = 0; // microseconds a group commit waits for more committers
    
    private static FileMgr     fm;
    private static BufferMgr   bm;
    private static LogMgr      logm;
    private static MetadataMgr mdm;
+   private static BufferWarmer warmer;
+   private static boolean hookAdded = false;
    
    /**
     * Initializes the system.
     * This method is called during system startup.
+    * A new database is created with blocks of {@link #BLOCK_SIZE} bytes;
+    * an existing database keeps the block size stored in its header.
+    * Warm restarts are off by default; if {@link #HOT_BLOCK_INTERVAL}
+    * is set to a positive value, a {@link BufferWarmer} then preloads
+    * the blocks that were hot when the database last shut down,
+    * in the background, and saves the current hot blocks at that
+    * interval and when the JVM shuts down.
     * @param dirname the name of the database directory
     */
    public static void init(String dirname) {
@@ -48,6 +84,8 @@ public class SimpleDB {
       }
       initMetadataMgr(isnew, tx);
       tx.commit();
+      if (HOT_BLOCK_INTERVAL > 0)
+         startWarmer();
    }
    
    // The following initialization methods are useful for 
@@ -56,28 +94,109 @@ public class SimpleDB {
    
    /**
     * Initializes only the file manager.
+    * If the database is new, its blocks will have
+    * the size given by {@link #BLOCK_SIZE}; otherwise
+    * the block size is read from the database header.
+    * If {@link #MAPPED_FILES} is true, the files are
+    * accessed through memory mappings.
+    * If {@link #IO_SCHEDULER} is true, the file manager's
+    * scheduler writes the pages of replaced and committed
+    * buffers in the background.
+    * A shutdown hook then stops the log manager and the scheduler
+    * (see {@link #addShutdownHook()}).
+    * A log manager of an earlier initialization is shut down first,
+    * since it writes through the file manager that this one replaces.
+    * Files grow in extents of at most {@link #FILE_EXTENT_SIZE} bytes,
+    * and at most {@link #MAX_OPEN_FILES} files are open at once.
+    * If {@link #COMPRESS_TEMP_FILES} is true, the pages
+    * of temporary tables are stored compressed.
+    * If {@link #SIMULATED_DISK} names a disk profile, the file manager
+    * is a {@link SimulatedFileMgr}, which keeps the files in memory
+    * if {@link #SIMULATED_DISK_IN_MEMORY} is true.
+    * The default profile is taken from the system property
+    * <code>simpledb.disk</code>, so that any program can be run
+    * on a simulated disk without being changed.
     * @param dirname the name of the database directory
     */
    public static void initFileMgr(String dirname) {
-      fm = new FileMgr(dirname);
+      if (logm != null) {
+         logm.shutdown();
+         logm = null;
+      }
+      if (SIMULATED_DISK == null)
+         fm = new FileMgr(dirname, BLOCK_SIZE, MAPPED_FILES);
+      else {
+         SimulatedFileMgr sfm = new SimulatedFileMgr(dirname, BLOCK_SIZE,
+                                                     SIMULATED_DISK, SIMULATED_DISK_IN_MEMORY);
+         sfm.setDelaying(SIMULATED_DISK_DELAYS);
+         fm = sfm;
+      }
+      fm.setExtentSize(FILE_EXTENT_SIZE);
+      fm.setMaxOpenFiles(MAX_OPEN_FILES);
+      fm.setCompressTempFiles(COMPRESS_TEMP_FILES);
+      if (IO_SCHEDULER)
+         fm.startScheduler();
+      addShutdownHook();
+   }
+
+   /**
+    * Registers, the first time it is called, a shutdown hook that
+    * shuts down the current log manager, which writes the log pages
+    * still buffered, and then stops the file manager's scheduler
+    * once it has performed its queued writes.
+    */
+   private static synchronized void addShutdownHook() {
+      if (hookAdded)
+         return;
+      hookAdded = true;
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run() {
+            if (logm != null)
+               logm.shutdown();
+            if (fm != null)
+               fm.stopScheduler();
+         }
+      });
    }
    
    /**
     * Initializes the file and log managers.
+    * The log manager buffers the log in a ring of
+    * {@link #LOG_BUFFER_PAGES} pages, and the leader of a group commit waits
+    * {@link #GROUP_COMMIT_DELAY} microseconds for more committers.
     * @param dirname the name of the database directory
     */
    public static void initFileAndLogMgr(String dirname) {
       initFileMgr(dirname);
-      logm = new LogMgr(LOG_FILE);
+      logm = new LogMgr(LOG_FILE, LOG_BUFFER_PAGES);
+      logm.setGroupCommitDelay(GROUP_COMMIT_DELAY);
    }
    
    /**
     * Initializes the file, log, and buffer managers.
+    * The buffer manager uses the replacement policy
+    * named by {@link #BUFFER_POLICY}, and is split into
+    * at most {@link #BUFFER_PARTITIONS} partitions.
+    * Unless {@link #DIRTY_HIGH_WATER} is 1, a background
+    * thread writes dirty buffers when the fraction of
+    * dirty buffers exceeds that value.
+    * Large scans recycle rings of {@link #BUFFER_RING_SIZE} buffers,
+    * sequential scans read {@link #READ_RUN_SIZE} blocks at a time,
+    * in the background if {@link #PREFETCH} is true,
+    * and a pin waits at most {@link #BUFFER_WAIT_TIME} milliseconds
+    * for a buffer.
     * @param dirname the name of the database directory
     */
    public static void initFileLogAndBufferMgr(String dirname) {
       initFileAndLogMgr(dirname);
-      bm = new BufferMgr(BUFFER_SIZE);
+      bm = new BufferMgr(BUFFER_SIZE, BUFFER_POLICY, BUFFER_PARTITIONS);
+      bm.setRingSize(BUFFER_RING_SIZE);
+      bm.setRunSize(READ_RUN_SIZE);
+      if (PREFETCH)
+         bm.startPrefetcher();
+      bm.setMaxWaitTime(BUFFER_WAIT_TIME);
+      if (DIRTY_HIGH_WATER < 1)
+         bm.startFlusher(DIRTY_HIGH_WATER, DIRTY_LOW_WATER);
    }
    
    /**
@@ -90,6 +209,20 @@ public class SimpleDB {
       mdm = new MetadataMgr(isnew, tx);
    }
    
+   /**
+    * Starts the buffer warmer, and registers a shutdown hook
+    * that saves the hot blocks when the server exits.
+    */
+   private static void startWarmer() {
+      warmer = new BufferWarmer(bm, HOT_BLOCK_INTERVAL);
+      warmer.start();
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+         public void run() {
+            warmer.shutdown();
+         }
+      });
+   }
+   
    public static FileMgr     fileMgr()   { return fm; }
    public static BufferMgr   bufferMgr() { return bm; }
    public static LogMgr      logMgr()    { return logm; }
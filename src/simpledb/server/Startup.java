@@ -5,7 +5,10 @@ import java.rmi.registry.*;
 
 public class Startup {
    public static void main(String args[]) throws Exception {
-      // configure and initialize the database
+      // configure and initialize the database;
+      // an optional second argument "mmap" maps the database files
+      if (args.length > 1 && args[1].equals("mmap"))
+         SimpleDB.MAPPED_FILES = true;
       SimpleDB.init(args[0]);
       
       // create a registry specific for the server on the default port
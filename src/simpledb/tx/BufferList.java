@@ -6,12 +6,14 @@ import simpledb.buffer.*;
 import java.util.*;
 
 /**
- * Manages the transaction's currently-pinned buffers. 
+ * Manages the transaction's currently-pinned buffers
+ * and its buffer reservations.
  * @author Edward Sciore
  */
 class BufferList {
    private Map<Block,Buffer> buffers = new HashMap<Block,Buffer>();
    private List<Block> pins = new ArrayList<Block>();
+   private List<BufferReservation> reservations = new ArrayList<BufferReservation>();
    private BufferMgr bufferMgr = SimpleDB.bufferMgr();
    
    /**
@@ -30,11 +32,39 @@ class BufferList {
     * @param blk a reference to the disk block
     */
    void pin(Block blk) {
-      Buffer buff = bufferMgr.pin(blk);
+      pin(blk, null);
+   }
+   
+   /**
+    * Pins the block on behalf of a one-pass scan
+    * using the specified ring,
+    * and keeps track of the buffer internally.
+    * @param blk a reference to the disk block
+    * @param ring the scan's buffer ring, or null
+    */
+   void pin(Block blk, BufferRing ring) {
+      Buffer buff = bufferMgr.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
    }
    
+   /**
+    * Pins a run of consecutive blocks of a file
+    * and keeps track of the buffers internally.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    * @param ring the scan's buffer ring, or null
+    */
+   void pinRange(String filename, int start, int count, BufferRing ring) {
+      Buffer[] buffs = bufferMgr.pinRange(filename, start, count, ring);
+      for (int i=0; i<count; i++) {
+         Block blk = new Block(filename, start + i);
+         buffers.put(blk, buffs[i]);
+         pins.add(blk);
+      }
+   }
+   
    /**
     * Appends a new block to the specified file
     * and pins it.
@@ -43,7 +73,20 @@ class BufferList {
     * @return a reference to the newly-created block
     */
    Block pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = bufferMgr.pinNew(filename, fmtr);
+      return pinNew(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the specified file
+    * and pins it on behalf of a one-pass scan
+    * using the specified ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the scan's buffer ring, or null
+    * @return a reference to the newly-created block
+    */
+   Block pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = bufferMgr.pinNew(filename, fmtr, ring);
       Block blk = buff.block();
       buffers.put(blk, buff);
       pins.add(blk);
@@ -63,7 +106,27 @@ class BufferList {
    }
    
    /**
-    * Unpins any buffers still pinned by this transaction.
+    * Reserves buffers for an operator of the transaction,
+    * and keeps track of the reservation internally.
+    * The request is nested if the transaction still holds
+    * an earlier reservation.
+    * @param min the fewest buffers the operator can work with
+    * @param max the most buffers the operator can use
+    * @return the reservation
+    */
+   BufferReservation reserve(int min, int max) {
+      boolean nested = false;
+      for (BufferReservation r : reservations)
+         if (!r.isReleased())
+            nested = true;
+      BufferReservation r = bufferMgr.reserve(min, max, nested);
+      reservations.add(r);
+      return r;
+   }
+   
+   /**
+    * Unpins any buffers still pinned by this transaction,
+    * and releases its reservations.
     */
    void unpinAll() {
       for (Block blk : pins) {
@@ -72,5 +135,8 @@ class BufferList {
       }
       buffers.clear();
       pins.clear();
+      for (BufferReservation r : reservations)
+         r.release();
+      reservations.clear();
    }
 }
\ No newline at end of file
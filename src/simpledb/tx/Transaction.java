@@ -87,6 +87,49 @@ public class Transaction {
       myBuffers.pin(blk);
    }
    
+   /**
+    * Pins the specified block on behalf of a one-pass scan,
+    * which recycles the buffers of the specified ring.
+    * @param blk a reference to the disk block
+    * @param ring the scan's buffer ring, or null
+    * @see simpledb.buffer.BufferMgr#pin(Block, BufferRing)
+    */
+   public void pin(Block blk, BufferRing ring) {
+      myBuffers.pin(blk, ring);
+   }
+   
+   /**
+    * Pins a run of consecutive blocks of the specified file,
+    * reading the blocks that are not in the pool
+    * with as few calls to the operating system as possible.
+    * The pins are meant for bringing the blocks in before
+    * they are used; each block is pinned again
+    * when it is used, and its run pin is then released.
+    * @param filename the name of the file
+    * @param start the number of the first block
+    * @param count the number of blocks
+    * @param ring the scan's buffer ring, or null
+    * @see simpledb.buffer.BufferMgr#pinRange(String, int, int, BufferRing)
+    */
+   public void pinRange(String filename, int start, int count, BufferRing ring) {
+      myBuffers.pinRange(filename, start, count, ring);
+   }
+   
+   /**
+    * Reserves between min and max buffers for an operator
+    * of the transaction, waiting if necessary.
+    * The operator should release the reservation when it is closed;
+    * any reservation still held is released when the
+    * transaction commits or rolls back.
+    * @param min the fewest buffers the operator can work with
+    * @param max the most buffers the operator can use
+    * @return the reservation
+    * @see simpledb.buffer.BufferMgr#reserve(int, int)
+    */
+   public BufferReservation reserveBuffers(int min, int max) {
+      return myBuffers.reserve(min, max);
+   }
+   
    /**
     * Unpins the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -127,6 +170,22 @@ public class Transaction {
       return buff.getString(offset);
    }
    
+   /**
+    * Returns the specified number of bytes, starting at the
+    * specified offset of the specified block.
+    * The method first obtains an SLock on the block,
+    * then it calls the buffer to retrieve the bytes.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param n the number of bytes
+    * @return the bytes stored at that offset
+    */
+   public byte[] getBytes(Block blk, int offset, int n) {
+      concurMgr.sLock(blk);
+      Buffer buff = myBuffers.getBuffer(blk);
+      return buff.getBytes(offset, n);
+   }
+   
    /**
     * Stores an integer at the specified offset 
     * of the specified block.
@@ -143,7 +202,7 @@ public class Transaction {
    public void setInt(Block blk, int offset, int val) {
       concurMgr.xLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setInt(buff, offset, val);
+      long lsn = recoveryMgr.setInt(buff, offset, val);
       buff.setInt(offset, val, txnum, lsn);
    }
    
@@ -163,10 +222,32 @@ public class Transaction {
    public void setString(Block blk, int offset, String val) {
       concurMgr.xLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setString(buff, offset, val);
+      long lsn = recoveryMgr.setString(buff, offset, val);
       buff.setString(offset, val, txnum, lsn);
    }
    
+   /**
+    * Stores bytes in the specified block, starting at the
+    * specified offset, such as a whole record or a range
+    * of records that is being moved.
+    * The method first obtains an XLock on the block.
+    * It then writes a single log record holding the bytes
+    * that the range currently contains,
+    * and calls the buffer to store the new bytes.
+    * Later changes to the range by the transaction need no
+    * log records of their own, since undoing this record
+    * restores the whole range.
+    * @param blk a reference to a disk block
+    * @param offset a byte offset within that block
+    * @param val the bytes to be stored
+    */
+   public void setBytes(Block blk, int offset, byte[] val) {
+      concurMgr.xLock(blk);
+      Buffer buff = myBuffers.getBuffer(blk);
+      long lsn = recoveryMgr.setBytes(buff, offset, val);
+      buff.setBytes(offset, val, txnum, lsn);
+   }
+   
    /**
     * Returns the number of blocks in the specified file.
     * This method first obtains an SLock on the 
@@ -191,9 +272,22 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
+      return append(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file
+    * on behalf of a one-pass scan, which recycles the
+    * buffers of the specified ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the scan's buffer ring, or null
+    * @return a reference to the newly-created disk block
+    */
+   public Block append(String filename, PageFormatter fmtr, BufferRing ring) {
       Block dummyblk = new Block(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
-      Block blk = myBuffers.pinNew(filename, fmtr);
+      Block blk = myBuffers.pinNew(filename, fmtr, ring);
       unpin(blk);
       return blk;
    }
@@ -24,9 +24,9 @@ class CheckpointRecord implements LogRecord {
     * Writes a checkpoint record to the log.
     * This log record contains the CHECKPOINT operator,
     * and nothing else.
-    * @return the LSN of the last log value
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {CHECKPOINT};
       return logMgr.append(rec);
    }
@@ -29,9 +29,9 @@ class CommitRecord implements LogRecord {
     * Writes a commit record to the log.
     * This log record contains the COMMIT operator,
     * followed by the transaction id.
-    * @return the LSN of the last log value
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {COMMIT, txnum};
       return logMgr.append(rec);
    }
@@ -3,6 +3,7 @@ package simpledb.tx.recovery;
 import static simpledb.tx.recovery.LogRecord.*;
 import java.util.Iterator;
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogIterator;
 import simpledb.server.SimpleDB;
 
 /**
@@ -14,7 +15,7 @@ import simpledb.server.SimpleDB;
  * @author Edward Sciore
  */
 class LogRecordIterator implements Iterator<LogRecord> {
-   private Iterator<BasicLogRecord> iter = SimpleDB.logMgr().iterator();
+   private LogIterator iter = SimpleDB.logMgr().iterator();
    
    public boolean hasNext() {
       return iter.hasNext();
@@ -45,6 +46,8 @@ class LogRecordIterator implements Iterator<LogRecord> {
             return new SetIntRecord(rec);
          case SETSTRING:
             return new SetStringRecord(rec);
+         case SETBYTES:
+            return new SetBytesRecord(rec);
          default:
             return null;
       }
@@ -53,4 +56,11 @@ class LogRecordIterator implements Iterator<LogRecord> {
    public void remove() {
       throw new UnsupportedOperationException();
    }
+   
+   /**
+    * Closes the underlying log iterator.
+    */
+   public void close() {
+      iter.close();
+   }
 }
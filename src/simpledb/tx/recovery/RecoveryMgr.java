@@ -1,6 +1,7 @@
 package simpledb.tx.recovery;
 
 import static simpledb.tx.recovery.LogRecord.*;
+import static simpledb.file.Page.*;
 import simpledb.file.Block;
 import simpledb.buffer.Buffer;
 import simpledb.server.SimpleDB;
@@ -8,10 +9,23 @@ import java.util.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * <p>
+ * Besides the records for a single integer or string,
+ * the recovery manager writes records holding the previous
+ * contents of a range of bytes, such as a record slot or the
+ * records shifted by an insertion into a B-tree page.
+ * The manager remembers the range of its most recent such record,
+ * and changes inside that range are not logged:
+ * the transaction keeps its exclusive lock on the block,
+ * so undoing the record restores the changes as well.
+ * A record being inserted thus needs a single log record,
+ * however many fields are then set.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
    private int txnum;
+   private Block coveredBlk = null;  // the block of the last range logged by setBytes
+   private int coveredStart, coveredEnd;
 
    /**
     * Creates a recovery manager for the specified transaction.
@@ -27,8 +41,8 @@ public class RecoveryMgr {
     */
    public void commit() {
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CommitRecord(txnum).writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+      long lsn = new CommitRecord(txnum).writeToLog();
+      SimpleDB.logMgr().flushCommit(lsn);
    }
 
    /**
@@ -37,8 +51,8 @@ public class RecoveryMgr {
    public void rollback() {
       doRollback();
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new RollbackRecord(txnum).writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+      long lsn = new RollbackRecord(txnum).writeToLog();
+      SimpleDB.logMgr().flushCommit(lsn);
    }
 
    /**
@@ -48,7 +62,7 @@ public class RecoveryMgr {
    public void recover() {
       doRecover();
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CheckpointRecord().writeToLog();
+      long lsn = new CheckpointRecord().writeToLog();
       SimpleDB.logMgr().flush(lsn);
 
    }
@@ -61,10 +75,10 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.getInt(offset);
       Block blk = buff.block();
-      if (isTempBlock(blk))
+      if (isTempBlock(blk) || isCovered(blk, offset, INT_SIZE))
          return -1;
       else
          return new SetIntRecord(txnum, blk, offset, oldval).writeToLog();
@@ -78,15 +92,45 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.getString(offset);
       Block blk = buff.block();
-      if (isTempBlock(blk))
+      if (isTempBlock(blk) || isCovered(blk, offset, STR_SIZE(newval.length())))
          return -1;
       else
          return new SetStringRecord(txnum, blk, offset, oldval).writeToLog();
    }
 
+   /**
+    * Writes setbytes records holding the previous contents of
+    * the range of bytes to be written, and returns the LSN of the last one.
+    * A range longer than half a block is split into several records,
+    * so that each record fits in a page of the log.
+    * The range is remembered, so that later changes inside
+    * it are not logged.
+    * Updates to temporary files are not logged; instead, a
+    * "dummy" negative lsn is returned.
+    * @param buff the buffer containing the page
+    * @param offset the offset of the range in the page
+    * @param newval the bytes to be written
+    */
+   public long setBytes(Buffer buff, int offset, byte[] newval) {
+      Block blk = buff.block();
+      if (isTempBlock(blk) || isCovered(blk, offset, newval.length))
+         return -1;
+      int maxlen = SimpleDB.fileMgr().blockSize() / 2;
+      long lsn = -1;
+      for (int pos=offset; pos<offset+newval.length; pos+=maxlen) {
+         int len = Math.min(maxlen, offset + newval.length - pos);
+         byte[] oldval = buff.getBytes(pos, len);
+         lsn = new SetBytesRecord(txnum, blk, pos, oldval).writeToLog();
+      }
+      coveredBlk = blk;
+      coveredStart = offset;
+      coveredEnd = offset + newval.length;
+      return lsn;
+   }
+
    /**
     * Rolls back the transaction.
     * The method iterates through the log records,
@@ -95,15 +139,20 @@ public class RecoveryMgr {
     * until it finds the transaction's START record.
     */
    private void doRollback() {
-      Iterator<LogRecord> iter = new LogRecordIterator();
-      while (iter.hasNext()) {
-         LogRecord rec = iter.next();
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(txnum);
+      LogRecordIterator iter = new LogRecordIterator();
+      try {
+         while (iter.hasNext()) {
+            LogRecord rec = iter.next();
+            if (rec.txNumber() == txnum) {
+               if (rec.op() == START)
+                  return;
+               rec.undo(txnum);
+            }
          }
       }
+      finally {
+         iter.close();
+      }
    }
 
    /**
@@ -116,16 +165,31 @@ public class RecoveryMgr {
     */
    private void doRecover() {
       Collection<Integer> finishedTxs = new ArrayList<Integer>();
-      Iterator<LogRecord> iter = new LogRecordIterator();
-      while (iter.hasNext()) {
-         LogRecord rec = iter.next();
-         if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
-            finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
-            rec.undo(txnum);
+      LogRecordIterator iter = new LogRecordIterator();
+      try {
+         while (iter.hasNext()) {
+            LogRecord rec = iter.next();
+            if (rec.op() == CHECKPOINT)
+               return;
+            if (rec.op() == COMMIT || rec.op() == ROLLBACK)
+               finishedTxs.add(rec.txNumber());
+            else if (!finishedTxs.contains(rec.txNumber()))
+               rec.undo(txnum);
+         }
       }
+      finally {
+         iter.close();
+      }
+   }
+
+   /**
+    * Determines whether the specified range lies within
+    * the range of the last setbytes records, whose undo
+    * would restore it.
+    */
+   private boolean isCovered(Block blk, int offset, int length) {
+      return coveredBlk != null && coveredBlk.equals(blk) && offset >= coveredStart
+            && offset + length <= coveredEnd;
    }
 
    /**
@@ -29,9 +29,9 @@ class RollbackRecord implements LogRecord {
     * Writes a rollback record to the log.
     * This log record contains the ROLLBACK operator,
     * followed by the transaction id.
-    * @return the LSN of the last log value
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {ROLLBACK, txnum};
       return logMgr.append(rec);
    }
@@ -0,0 +1,79 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.log.BasicLogRecord;
+
+class SetBytesRecord implements LogRecord {
+   private int txnum, offset;
+   private byte[] val;
+   private Block blk;
+
+   /**
+    * Creates a new setbytes log record.
+    * @param txnum the ID of the specified transaction
+    * @param blk the block containing the bytes
+    * @param offset the offset of the first byte in the block
+    * @param val the previous contents of the range
+    */
+   public SetBytesRecord(int txnum, Block blk, int offset, byte[] val) {
+      this.txnum = txnum;
+      this.blk = blk;
+      this.offset = offset;
+      this.val = val;
+   }
+
+   /**
+    * Creates a log record by reading five other values from the log.
+    * @param rec the basic log record
+    */
+   public SetBytesRecord(BasicLogRecord rec) {
+      txnum = rec.nextInt();
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+      offset = rec.nextInt();
+      val = rec.nextBytes();
+   }
+
+   /**
+    * Writes a setBytes record to the log.
+    * This log record contains the SETBYTES operator,
+    * followed by the transaction id, the filename, number,
+    * and offset of the modified block, and the previous
+    * bytes of the range starting at that offset.
+    * @return the LSN of the log record
+    */
+   public long writeToLog() {
+      Object[] rec = new Object[] {SETBYTES, txnum, blk.fileName(),
+         blk.number(), offset, val};
+      return logMgr.append(rec);
+   }
+
+   public int op() {
+      return SETBYTES;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public String toString() {
+      return "<SETBYTES " + txnum + " " + blk + " " + offset + " " + val.length + ">";
+   }
+
+   /**
+    * Replaces the range of bytes with the bytes saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setBytes to restore the saved bytes
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#undo(int)
+    */
+   public void undo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setBytes(offset, val, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+}
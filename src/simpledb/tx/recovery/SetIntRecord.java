@@ -42,9 +42,9 @@ class SetIntRecord implements LogRecord {
     * followed by the transaction id, the filename, number,
     * and offset of the modified block, and the previous
     * integer value at that offset.
-    * @return the LSN of the last log value
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {SETINT, txnum, blk.fileName(),
          blk.number(), offset, val};
       return logMgr.append(rec);
@@ -25,9 +25,9 @@ class StartRecord implements LogRecord {
     * Writes a start record to the log.
     * This log record contains the START operator,
     * followed by the transaction id.
-    * @return the LSN of the last log value
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {START, txnum};
       return logMgr.append(rec);
    }
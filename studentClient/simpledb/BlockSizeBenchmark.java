@@ -0,0 +1,97 @@
+import java.util.Random;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.*;
+import simpledb.index.Index;
+import simpledb.index.btree.BTreeIndex;
+import simpledb.server.SimpleDB;
+
+/* Measures scan and point-lookup throughput for a given block size.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The block size of a database is fixed
+ * when it is created, so each size gets its own database directory;
+ * run the program once per size, e.g.
+ *     java BlockSizeBenchmark 4096
+ *     java BlockSizeBenchmark 8192
+ *     java BlockSizeBenchmark 16384
+ *     java BlockSizeBenchmark 32768
+ */
+
+public class BlockSizeBenchmark {
+	private static final int NUM_RECORDS = 20000;
+	private static final int NUM_LOOKUPS = 5000;
+	private static final int SCAN_REPEATS = 5;
+
+	public static void main(String[] args) {
+		int blocksize = (args.length > 0) ? Integer.parseInt(args[0]) : SimpleDB.BLOCK_SIZE;
+		try {
+			SimpleDB.BLOCK_SIZE = blocksize;
+			SimpleDB.init("blocksizebench" + blocksize);
+			blocksize = SimpleDB.fileMgr().blockSize();
+
+			Schema sch = new Schema();
+			sch.addIntField("id");
+			sch.addStringField("name", 20);
+			TableInfo ti = new TableInfo("bench", sch);
+
+			Schema idxsch = new Schema();
+			idxsch.addIntField("block");
+			idxsch.addIntField("id");
+			idxsch.addIntField("dataval");
+
+			Transaction tx = new Transaction();
+			if (tx.size(ti.fileName()) == 0)
+				load(ti, idxsch, tx);
+			tx.commit();
+
+			tx = new Transaction();
+			long start = System.nanoTime();
+			long count = 0;
+			for (int i=0; i<SCAN_REPEATS; i++) {
+				TableScan ts = new TableScan(ti, tx);
+				while (ts.next())
+					count++;
+				ts.close();
+			}
+			double scansecs = (System.nanoTime() - start) / 1e9;
+
+			Random rand = new Random(1);
+			TableScan ts = new TableScan(ti, tx);
+			Index idx = new BTreeIndex("benchidx", idxsch, tx);
+			start = System.nanoTime();
+			for (int i=0; i<NUM_LOOKUPS; i++) {
+				idx.beforeFirst(new IntConstant(rand.nextInt(NUM_RECORDS)));
+				while (idx.next()) {
+					ts.moveToRid(idx.getDataRid());
+					ts.getString("name");
+				}
+			}
+			double lookupsecs = (System.nanoTime() - start) / 1e9;
+			idx.close();
+			ts.close();
+			int numblocks = tx.size(ti.fileName());
+			tx.commit();
+
+			System.out.println("block size " + blocksize
+					+ ": " + numblocks + " table blocks");
+			System.out.println("scan:   " + (long)(count / scansecs) + " records/sec");
+			System.out.println("lookup: " + (long)(NUM_LOOKUPS / lookupsecs) + " lookups/sec");
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void load(TableInfo ti, Schema idxsch, Transaction tx) {
+		TableScan ts = new TableScan(ti, tx);
+		Index idx = new BTreeIndex("benchidx", idxsch, tx);
+		for (int i=0; i<NUM_RECORDS; i++) {
+			ts.insert();
+			ts.setInt("id", i);
+			ts.setString("name", "rec" + i);
+			idx.insert(new IntConstant(i), ts.getRid());
+		}
+		idx.close();
+		ts.close();
+	}
+}
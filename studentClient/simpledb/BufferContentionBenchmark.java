@@ -0,0 +1,73 @@
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+
+/* Measures how threads fare when they compete for a buffer pool
+ * that is too small for all of them.  Each thread repeatedly pins
+ * a block of its own, holds it briefly, and unpins it.
+ * The program prints the total throughput, the fewest and most
+ * rounds completed by a single thread (a measure of fairness),
+ * and the histogram of the times that pins waited for a buffer.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The number of threads can be given as
+ * an argument.
+ */
+
+public class BufferContentionBenchmark {
+	private static final int POOL_SIZE = 16;
+	private static final int PINS_PER_ROUND = 1;
+	private static final long DURATION = 3000; // ms
+
+	private static volatile boolean stopped = false;
+
+	public static void main(String[] args) throws InterruptedException {
+		int numthreads = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+		SimpleDB.initFileAndLogMgr("contentionbench");
+		final BufferMgr bm = new BufferMgr(POOL_SIZE);
+		final long[] rounds = new long[numthreads];
+		final long[] aborts = new long[numthreads];
+		Thread[] threads = new Thread[numthreads];
+		for (int t=0; t<numthreads; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				public void run() {
+					Buffer[] buffs = new Buffer[PINS_PER_ROUND];
+					while (!stopped) {
+						int n = 0;
+						try {
+							for (n=0; n<PINS_PER_ROUND; n++)
+								buffs[n] = bm.pin(new Block("contention.tbl", id * PINS_PER_ROUND + n));
+							Thread.yield();
+							rounds[id]++;
+						}
+						catch(BufferAbortException e) {
+							aborts[id]++;
+						}
+						for (int i=0; i<n; i++)
+							bm.unpin(buffs[i]);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		Thread.sleep(DURATION);
+		stopped = true;
+		for (Thread t : threads)
+			t.join();
+
+		long total = 0, min = Long.MAX_VALUE, max = 0, totalaborts = 0;
+		for (int t=0; t<numthreads; t++) {
+			total += rounds[t];
+			min = Math.min(min, rounds[t]);
+			max = Math.max(max, rounds[t]);
+			totalaborts += aborts[t];
+		}
+		WaitHistogram h = bm.waitHistogram();
+		System.out.println(numthreads + " threads, pool " + POOL_SIZE + ": "
+				+ (total * 1000 / DURATION) + " rounds/sec, per thread min "
+				+ min + " max " + max + ", " + totalaborts + " aborts");
+		System.out.println(h.count() + " waits, p50 < " + h.percentile(0.5)
+				+ " us, p99 < " + h.percentile(0.99) + " us");
+		System.out.print(h);
+	}
+}
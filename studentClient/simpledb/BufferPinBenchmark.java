@@ -0,0 +1,45 @@
+import java.util.Random;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+
+/* Measures the latency of BufferMgr.pin and unpin for
+ * several buffer pool sizes.  The pool is first filled with
+ * blocks of a scratch file, and then random resident blocks
+ * are pinned and unpinned, so that every pin is a cache hit.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The pool sizes can be given as
+ * arguments; the default is 8, 1024 and 65536.
+ */
+
+public class BufferPinBenchmark {
+	private static final int NUM_PINS = 1000000;
+
+	public static void main(String[] args) {
+		int[] sizes = {8, 1024, 65536};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i=0; i<args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		SimpleDB.initFileAndLogMgr("pinbench");
+		for (int size : sizes) {
+			BufferMgr bm = new BufferMgr(size);
+			Block[] blocks = new Block[size];
+			for (int i=0; i<size; i++) {
+				blocks[i] = new Block("pinbench.tbl", i);
+				bm.unpin(bm.pin(blocks[i]));
+			}
+
+			Random rand = new Random(1);
+			long start = System.nanoTime();
+			for (int i=0; i<NUM_PINS; i++) {
+				Buffer buff = bm.pin(blocks[rand.nextInt(size)]);
+				bm.unpin(buff);
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.println("pool size " + size + ": "
+					+ (elapsed / NUM_PINS) + " ns per pin/unpin");
+		}
+	}
+}
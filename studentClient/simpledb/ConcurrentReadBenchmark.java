@@ -0,0 +1,62 @@
+import java.util.Random;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/* Measures how random block reads scale with the number of
+ * threads that issue them.  Each thread repeatedly reads a
+ * random block of a test file into a page of its own,
+ * so the reads go directly to the file manager.
+ * The program prints the number of reads per second
+ * for 1, 2, 4, 8 and 16 threads.
+ * The file is larger than most buffer pools, but usually fits
+ * in the operating system's cache, so the benchmark measures
+ * the cost of the file manager rather than of the disk.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The number of blocks in the test file
+ * can be given as an argument.
+ */
+
+public class ConcurrentReadBenchmark {
+	private static final String FILE = "randomread.tbl";
+	private static final long DURATION = 2000; // ms per thread count
+
+	private static volatile boolean stopped;
+
+	public static void main(String[] args) throws InterruptedException {
+		final int numblocks = (args.length > 0) ? Integer.parseInt(args[0]) : 25600;
+		SimpleDB.initFileMgr("readbench");
+		Page p = new Page();
+		for (int n = SimpleDB.fileMgr().size(FILE); n < numblocks; n++)
+			p.append(FILE);
+		System.out.println(numblocks + " blocks of " + SimpleDB.fileMgr().blockSize()
+				+ " bytes, " + Runtime.getRuntime().availableProcessors() + " processors");
+
+		for (int numthreads=1; numthreads<=16; numthreads*=2) {
+			final long[] reads = new long[numthreads];
+			Thread[] threads = new Thread[numthreads];
+			stopped = false;
+			for (int t=0; t<numthreads; t++) {
+				final int id = t;
+				threads[t] = new Thread() {
+					public void run() {
+						Page page = new Page();
+						Random rand = new Random(id);
+						while (!stopped) {
+							page.read(new Block(FILE, rand.nextInt(numblocks)));
+							reads[id]++;
+						}
+					}
+				};
+				threads[t].start();
+			}
+			Thread.sleep(DURATION);
+			stopped = true;
+			long total = 0;
+			for (int t=0; t<numthreads; t++) {
+				threads[t].join();
+				total += reads[t];
+			}
+			System.out.printf("%2d threads: %8d reads/sec%n", numthreads, total * 1000 / DURATION);
+		}
+	}
+}
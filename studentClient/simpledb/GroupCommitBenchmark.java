@@ -0,0 +1,86 @@
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.TableScan;
+import simpledb.log.LogMgr;
+import simpledb.server.SimpleDB;
+
+/* Measures commit throughput with 1, 8 and 64 concurrent clients.
+ * Each client runs short transactions, each of which updates
+ * one record of the client's own block and commits, so that
+ * the clients never wait for each other's locks.
+ * Transactions that commit at the same time share a force of the log
+ * (group commit); the program runs each number of clients with
+ * no group commit delay and with the delay given as an argument
+ * (in microseconds, 1000 by default), and prints the commits per second
+ * and the number of commits per force of the log.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.
+ */
+
+public class GroupCommitBenchmark {
+	private static final int MAX_CLIENTS = 64;
+	private static final long DURATION = 5000; // milliseconds
+
+	public static void main(String[] args) {
+		try {
+			long delay = (args.length > 0) ? Long.parseLong(args[0]) : 1000;
+			SimpleDB.BUFFER_SIZE = 2 * MAX_CLIENTS;
+			SimpleDB.HOT_BLOCK_INTERVAL = 0;
+			SimpleDB.init("commitbench");
+
+			Schema sch = new Schema();
+			sch.addIntField("n");
+			sch.addStringField("pad", 200);
+			final TableInfo ti = new TableInfo("commitbench", sch);
+			Transaction tx = new Transaction();
+			if (tx.size(ti.fileName()) < MAX_CLIENTS) {
+				TableScan ts = new TableScan(ti, tx);
+				while (tx.size(ti.fileName()) < MAX_CLIENTS) {
+					ts.insert();
+					ts.setInt("n", 0);
+				}
+				ts.close();
+			}
+			tx.commit();
+
+			LogMgr logm = SimpleDB.logMgr();
+			for (int numclients : new int[] {1, 8, MAX_CLIENTS})
+				for (long d : new long[] {0, delay}) {
+					logm.setGroupCommitDelay(d);
+					long forces = logm.forces();
+					final long end = System.currentTimeMillis() + DURATION;
+					final long[] commits = new long[numclients];
+					Thread[] clients = new Thread[numclients];
+					for (int i=0; i<numclients; i++) {
+						final int client = i;
+						clients[i] = new Thread() {
+							public void run() {
+								while (System.currentTimeMillis() < end) {
+									Transaction tx = new Transaction();
+									RecordFile rf = new RecordFile(ti, tx);
+									rf.moveToRid(new RID(client, 0));
+									rf.setInt("n", rf.getInt("n") + 1);
+									rf.close();
+									tx.commit();
+									commits[client]++;
+								}
+							}
+						};
+						clients[i].start();
+					}
+					long total = 0;
+					for (int i=0; i<numclients; i++) {
+						clients[i].join();
+						total += commits[i];
+					}
+					forces = logm.forces() - forces;
+					System.out.printf("%2d clients, delay %5d us: %6d commits/sec, %5.1f commits per log force%n",
+							numclients, d, total * 1000 / DURATION,
+							(double) total / Math.max(1, forces));
+				}
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+import java.util.Random;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.TableScan;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/* Compares writing buffers directly with writing them through
+ * the file manager's I/O scheduler, which sorts pending writes
+ * and merges consecutive blocks into single calls.
+ * The program loads a table of 50000 records, and then runs
+ * two workloads, each with and without the scheduler:
+ * a commit-heavy workload of many small transactions, each of which
+ * updates a few short ranges of records and commits, and an
+ * eviction-heavy workload, in which one transaction updates records
+ * in random order, so that dirty buffers are constantly replaced.
+ * The pool is small and background flushing is disabled, so that
+ * the buffers are written at commit and at replacement.
+ * The program prints the time and the number of write calls
+ * of each run, and on a simulated disk (see SimpleDB.SIMULATED_DISK)
+ * its simulated disk time.  The program accesses the SimpleDB classes directly,
+ * like StudentMajorNoServer.
+ */
+
+public class IOSchedulerBenchmark {
+	private static final int NUM_RECS = 50000;
+	private static final int NUM_TXS = 300;
+	private static final int NUM_UPDATES = 20000;
+
+	public static void main(String[] args) {
+		try {
+			SimpleDB.BUFFER_SIZE = 64;
+			SimpleDB.DIRTY_HIGH_WATER = 1;
+			SimpleDB.HOT_BLOCK_INTERVAL = 0;
+			SimpleDB.init("schedbench");
+
+			Schema sch = new Schema();
+			sch.addIntField("id");
+			sch.addStringField("name", 20);
+			TableInfo ti = new TableInfo("schedbench", sch);
+			Transaction tx = new Transaction();
+			int numblocks = tx.size(ti.fileName());
+			if (numblocks == 0) {
+				TableScan ts = new TableScan(ti, tx);
+				for (int i=0; i<NUM_RECS; i++) {
+					ts.insert();
+					ts.setInt("id", i);
+					ts.setString("name", "rec" + i);
+				}
+				ts.close();
+				numblocks = tx.size(ti.fileName());
+			}
+			tx.commit();
+			System.out.println(NUM_RECS + " records in " + numblocks + " blocks");
+
+			FileMgr fm = SimpleDB.fileMgr();
+			for (String workload : new String[] {"commit", "evict"})
+				for (boolean scheduled : new boolean[] {false, true, false, true}) {
+					if (scheduled)
+						fm.startScheduler();
+					else
+						fm.stopScheduler();
+					if (fm instanceof SimulatedFileMgr)
+						((SimulatedFileMgr) fm).resetStats();
+					long calls = fm.writeCalls();
+					long start = System.nanoTime();
+					Random rand = new Random(1);
+					if (workload.equals("commit"))
+						for (int t=0; t<NUM_TXS; t++) {
+							tx = new Transaction();
+							for (int r=0; r<3; r++)
+								update(ti, tx, rand.nextInt(numblocks - 8), 8);
+							tx.commit();
+						}
+					else {
+						tx = new Transaction();
+						for (int u=0; u<NUM_UPDATES; u++)
+							update(ti, tx, rand.nextInt(numblocks), 1);
+						tx.commit();
+					}
+					long elapsed = System.nanoTime() - start;
+					System.out.printf("%-6s %-9s: %5d ms, %6d write calls%n",
+							workload, scheduled ? "scheduled" : "direct",
+							elapsed / 1000000, fm.writeCalls() - calls);
+					if (fm instanceof SimulatedFileMgr)
+						System.out.println("                  " + fm);
+				}
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	// updates the first record of each block in a range of blocks
+	private static void update(TableInfo ti, Transaction tx, int firstblk, int numblks) {
+		RecordFile rf = new RecordFile(ti, tx);
+		for (int b=firstblk; b<firstblk+numblks; b++) {
+			rf.moveToRid(new RID(b, 0));
+			rf.setInt("id", rf.getInt("id"));
+		}
+		rf.close();
+	}
+}
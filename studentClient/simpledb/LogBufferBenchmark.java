@@ -0,0 +1,74 @@
+import java.io.File;
+import simpledb.log.LogMgr;
+import simpledb.server.SimpleDB;
+
+/* Measures how fast concurrent threads can append to the log,
+ * for several sizes of the log manager's ring of pages.
+ * Each thread appends records the size of an update record,
+ * and flushes the log after every 50 records, as a transaction
+ * would when it commits.  Each ring size writes its own log file,
+ * and the program prints the records appended per second
+ * and the number of forces of the log.
+ * The program deletes its database directory at startup,
+ * so that every execution starts with empty logs.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.
+ */
+
+public class LogBufferBenchmark {
+	private static final String DB_NAME = "logbufbench";
+	private static final int NUM_THREADS = 4;
+	private static final int RECORDS_PER_FLUSH = 50;
+	private static final long DURATION = 3000; // milliseconds
+
+	public static void main(String[] args) {
+		try {
+			deleteDirectory(new File(System.getProperty("user.home"), DB_NAME));
+			SimpleDB.initFileAndLogMgr(DB_NAME);
+			for (int numpages : new int[] {2, 8, 32}) {
+				final LogMgr logm = new LogMgr("bench" + numpages + ".log", numpages);
+				final long end = System.currentTimeMillis() + DURATION;
+				final long[] appends = new long[NUM_THREADS];
+				Thread[] threads = new Thread[NUM_THREADS];
+				for (int i=0; i<NUM_THREADS; i++) {
+					final int thread = i;
+					threads[i] = new Thread() {
+						public void run() {
+							Object[] rec = {4, thread, "studentfile.tbl", 0, 0, 0};
+							while (System.currentTimeMillis() < end) {
+								long lsn = 0;
+								for (int j=0; j<RECORDS_PER_FLUSH; j++) {
+									rec[3] = j;
+									lsn = logm.append(rec);
+								}
+								logm.flush(lsn);
+								appends[thread] += RECORDS_PER_FLUSH;
+							}
+						}
+					};
+					threads[i].start();
+				}
+				long total = 0;
+				for (int i=0; i<NUM_THREADS; i++) {
+					threads[i].join();
+					total += appends[i];
+				}
+				System.out.printf("%2d log pages: %7d records/sec, %5d log forces%n",
+						numpages, total * 1000 / DURATION, logm.forces());
+				logm.shutdown();
+			}
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+			f.delete();
+		dir.delete();
+	}
+}
@@ -0,0 +1,71 @@
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.TableScan;
+import simpledb.buffer.BufferMgr;
+import simpledb.log.LogMgr;
+import simpledb.server.SimpleDB;
+
+/* Counts the forces of the log during an eviction-heavy workload.
+ * Each transaction updates one record in every block of a table
+ * that is much larger than the buffer pool, so that the modified
+ * buffers are written before the transaction commits, either
+ * by the pinning threads or by the background flusher.
+ * Each write first flushes the log up to the buffer's LSN;
+ * the program prints the number of buffer writes, the number
+ * of forces of the log and the elapsed time.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The number of blocks in the table
+ * can be given as an argument.
+ */
+
+public class LogFlushBenchmark {
+	private static final int NUM_TXS = 5;
+
+	public static void main(String[] args) {
+		try {
+			int numblocks = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+			SimpleDB.BUFFER_SIZE = 32;
+			SimpleDB.HOT_BLOCK_INTERVAL = 0;
+			SimpleDB.init("logflushbench");
+
+			Schema sch = new Schema();
+			sch.addIntField("n");
+			sch.addStringField("pad", 200);
+			TableInfo ti = new TableInfo("logflushbench", sch);
+			Transaction tx = new Transaction();
+			if (tx.size(ti.fileName()) < numblocks) {
+				TableScan ts = new TableScan(ti, tx);
+				while (tx.size(ti.fileName()) < numblocks) {
+					ts.insert();
+					ts.setInt("n", 0);
+				}
+				ts.close();
+			}
+			tx.commit();
+
+			BufferMgr bm = SimpleDB.bufferMgr();
+			LogMgr logm = SimpleDB.logMgr();
+			long writes = bm.evictionWrites() + bm.backgroundWrites();
+			long forces = logm.forces();
+			long start = System.currentTimeMillis();
+			for (int i=0; i<NUM_TXS; i++) {
+				tx = new Transaction();
+				RecordFile rf = new RecordFile(ti, tx);
+				for (int b=0; b<numblocks; b++) {
+					rf.moveToRid(new RID(b, 0));
+					rf.setInt("n", rf.getInt("n") + 1);
+				}
+				rf.close();
+				tx.commit();
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			writes = bm.evictionWrites() + bm.backgroundWrites() - writes;
+			forces = logm.forces() - forces;
+			System.out.printf("%d updates: %d buffer writes, %d log forces, %d ms%n",
+					NUM_TXS * numblocks, writes, forces, elapsed);
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
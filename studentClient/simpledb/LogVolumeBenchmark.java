@@ -0,0 +1,103 @@
+import java.io.File;
+import java.util.Random;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.*;
+import simpledb.index.Index;
+import simpledb.index.btree.BTreeIndex;
+import simpledb.file.FileMgr;
+import simpledb.server.SimpleDB;
+
+/* Measures the volume of log written by inserts, and their speed.
+ * The program first inserts records having four fields into a table,
+ * and then inserts entries having random keys into a B-tree index,
+ * so that most index insertions shift the entries of a leaf.
+ * Transactions commit after every 1000 insertions.
+ * For each phase, the program prints the number of
+ * bytes appended to the log per insertion and
+ * the number of insertions per second.
+ * The program deletes its database directory at startup,
+ * so that every execution starts with an empty database.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The number of insertions per phase
+ * can be given as an argument.
+ */
+
+public class LogVolumeBenchmark {
+	private static final String DB_NAME = "logvolbench";
+	private static final int TX_SIZE = 1000;
+
+	public static void main(String[] args) {
+		try {
+			int count = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+			deleteDirectory(new File(System.getProperty("user.home"), DB_NAME));
+			SimpleDB.BUFFER_SIZE = 100;
+			SimpleDB.HOT_BLOCK_INTERVAL = 0;
+			SimpleDB.init(DB_NAME);
+
+			Schema sch = new Schema();
+			sch.addIntField("id");
+			sch.addStringField("name", 20);
+			sch.addStringField("city", 20);
+			sch.addIntField("score");
+			TableInfo ti = new TableInfo("logvol", sch);
+			Schema idxsch = new Schema();
+			idxsch.addIntField("block");
+			idxsch.addIntField("id");
+			idxsch.addIntField("dataval");
+
+			Random rand = new Random(1);
+			long logsize = logSize();
+			long start = System.nanoTime();
+			for (int i=0; i<count; i+=TX_SIZE) {
+				Transaction tx = new Transaction();
+				TableScan ts = new TableScan(ti, tx);
+				for (int j=i; j<i+TX_SIZE; j++) {
+					ts.insert();
+					ts.setInt("id", j);
+					ts.setString("name", "name" + j);
+					ts.setString("city", "city" + rand.nextInt(100));
+					ts.setInt("score", rand.nextInt(1000));
+				}
+				ts.close();
+				tx.commit();
+			}
+			report("table inserts", count, logsize, start);
+
+			logsize = logSize();
+			start = System.nanoTime();
+			for (int i=0; i<count; i+=TX_SIZE) {
+				Transaction tx = new Transaction();
+				Index idx = new BTreeIndex("logvolidx", idxsch, tx);
+				for (int j=i; j<i+TX_SIZE; j++)
+					idx.insert(new IntConstant(rand.nextInt(1000000)), new RID(j, 0));
+				idx.close();
+				tx.commit();
+			}
+			report("index inserts", count, logsize, start);
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static long logSize() {
+		FileMgr fm = SimpleDB.fileMgr();
+		return (long) fm.size(SimpleDB.LOG_FILE) * fm.blockSize();
+	}
+
+	private static void report(String phase, int count, long logsize, long start) {
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-13s: %5d log bytes per insert, %6d inserts/sec%n",
+				phase, (logSize() - logsize) / count, count * 1000000000L / elapsed);
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+			f.delete();
+		dir.delete();
+	}
+}
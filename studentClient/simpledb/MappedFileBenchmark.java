@@ -0,0 +1,100 @@
+import java.util.*;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.*;
+import simpledb.index.Index;
+import simpledb.index.btree.BTreeIndex;
+import simpledb.server.SimpleDB;
+
+/* Compares reading blocks through the file's channel with
+ * reading them through memory mappings of the file.
+ * The program times full table scans and B-tree index lookups
+ * of a table that is much larger than the buffer pool,
+ * so that most blocks are read through the file manager.
+ * The file access mode is fixed when the database starts,
+ * so run the program once in each mode:
+ *     java MappedFileBenchmark channel
+ *     java MappedFileBenchmark mmap
+ * The first run creates the table and its index.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.
+ */
+
+public class MappedFileBenchmark {
+	private static final int NUM_RECORDS = 20000;
+	private static final int NUM_SCANS = 20;
+	private static final int NUM_LOOKUPS = 50000;
+
+	public static void main(String[] args) {
+		try {
+			String mode = (args.length > 0) ? args[0] : "channel";
+			SimpleDB.MAPPED_FILES = mode.equals("mmap");
+			SimpleDB.BUFFER_SIZE = 32;
+			SimpleDB.init("mmapbench");
+
+			Schema sch = new Schema();
+			sch.addIntField("id");
+			sch.addStringField("pad", 100);
+			TableInfo ti = new TableInfo("mapped", sch);
+			Schema idxsch = new Schema();
+			idxsch.addIntField("block");
+			idxsch.addIntField("id");
+			idxsch.addIntField("dataval");
+
+			Transaction tx = new Transaction();
+			if (tx.size(ti.fileName()) == 0)
+				load(ti, idxsch, tx);
+			tx.commit();
+
+			tx = new Transaction();
+			long misses = SimpleDB.bufferMgr().misses();
+			long start = System.nanoTime();
+			for (int i=0; i<NUM_SCANS; i++) {
+				TableScan ts = new TableScan(ti, tx);
+				while (ts.next())
+					ts.getInt("id");
+				ts.close();
+			}
+			report(mode + ", table scan:  ", start, NUM_SCANS, "scan", misses);
+
+			misses = SimpleDB.bufferMgr().misses();
+			Random rand = new Random(1);
+			Index idx = new BTreeIndex("mappedidx", idxsch, tx);
+			TableScan ts = new TableScan(ti, tx);
+			start = System.nanoTime();
+			for (int i=0; i<NUM_LOOKUPS; i++) {
+				idx.beforeFirst(new IntConstant(rand.nextInt(NUM_RECORDS)));
+				if (idx.next()) {
+					ts.moveToRid(idx.getDataRid());
+					ts.getInt("id");
+				}
+			}
+			report(mode + ", index lookup:", start, NUM_LOOKUPS, "lookup", misses);
+			idx.close();
+			ts.close();
+			tx.commit();
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void report(String label, long start, int count, String unit, long misses) {
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%s %8d ns per %s, %d blocks read%n", label, elapsed / count, unit,
+				SimpleDB.bufferMgr().misses() - misses);
+	}
+
+	private static void load(TableInfo ti, Schema idxsch, Transaction tx) {
+		TableScan ts = new TableScan(ti, tx);
+		Index idx = new BTreeIndex("mappedidx", idxsch, tx);
+		for (int i=0; i<NUM_RECORDS; i++) {
+			ts.insert();
+			ts.setInt("id", i);
+			ts.setString("pad", "rec" + i);
+			idx.insert(new IntConstant(i), ts.getRid());
+		}
+		idx.close();
+		ts.close();
+	}
+}
@@ -0,0 +1,83 @@
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.TableScan;
+import simpledb.file.*;
+import simpledb.buffer.BufferMgr;
+import simpledb.server.SimpleDB;
+
+/* Compares full table scans that read one block at a time
+ * with scans that read runs of blocks with a single call.
+ * The program loads a table of a million small records,
+ * which is much larger than the buffer pool, and then
+ * scans it with each run size, printing the time per scan
+ * and the number of read calls made to the operating system.
+ * On a simulated disk (see SimpleDB.SIMULATED_DISK), the program
+ * also prints the simulated disk time of each run size.
+ * The table is temporary, so that loading it is not logged;
+ * it is deleted when the database is next started.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The number of records can be
+ * given as an argument.
+ */
+
+public class MultiBlockReadBenchmark {
+	private static final int NUM_SCANS = 5;
+	private static final int[] RUN_SIZES = {1, 4, 16, 32};
+
+	public static void main(String[] args) {
+		try {
+			int numrecs = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+			SimpleDB.BUFFER_SIZE = 256;
+			SimpleDB.init("runbench");
+
+			Schema sch = new Schema();
+			sch.addIntField("id");
+			sch.addStringField("name", 10);
+			TableInfo ti = new TableInfo("tempreadbench", sch);
+			Transaction tx = new Transaction();
+			long start = System.nanoTime();
+			TableScan ts = new TableScan(ti, tx);
+			for (int i=0; i<numrecs; i++) {
+				ts.insert();
+				ts.setInt("id", i);
+				ts.setString("name", "rec" + i);
+			}
+			ts.close();
+			System.out.println(numrecs + " records in " + tx.size(ti.fileName())
+					+ " blocks loaded in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+			FileMgr fm = SimpleDB.fileMgr();
+			BufferMgr bm = SimpleDB.bufferMgr();
+			ts = new TableScan(ti, tx);  // warm up the code
+			while (ts.next())
+				ts.getInt("id");
+			ts.close();
+			for (int runsize : RUN_SIZES) {
+				bm.setRunSize(runsize);
+				if (fm instanceof SimulatedFileMgr)
+					((SimulatedFileMgr) fm).resetStats();
+				long calls = fm.readCalls();
+				long rows = 0;
+				start = System.nanoTime();
+				for (int i=0; i<NUM_SCANS; i++) {
+					ts = new TableScan(ti, tx);
+					while (ts.next())
+						if (ts.getInt("id") >= 0)
+							rows++;
+					ts.close();
+				}
+				long elapsed = System.nanoTime() - start;
+				System.out.printf("run size %2d: %5d ms per scan, %8d rows/sec, %6d read calls per scan%n",
+						runsize, elapsed / NUM_SCANS / 1000000,
+						rows * 1000000000L / elapsed,
+						(fm.readCalls() - calls) / NUM_SCANS);
+				if (fm instanceof SimulatedFileMgr)
+					System.out.println("             " + fm);
+			}
+			tx.commit();
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
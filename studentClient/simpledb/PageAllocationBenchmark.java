@@ -0,0 +1,85 @@
+import java.lang.management.*;
+import java.util.*;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/* Compares allocating one direct byte buffer per page with
+ * allocating the pages from a single PageArena and a pool.
+ * The first part measures how long it takes to allocate
+ * the pages of a buffer pool of the given size (1 GB by default).
+ * The second part reads a log block into many short-lived pages,
+ * first with a new page each, as LogIterator used to do,
+ * and then with pages borrowed from the pool, as it does now.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  Run it with enough direct memory, e.g.
+ *     java -XX:MaxDirectMemorySize=3g PageAllocationBenchmark 1024
+ */
+
+public class PageAllocationBenchmark {
+	private static final int NUM_ITERATORS = 100000;
+
+	public static void main(String[] args) {
+		long poolmb = (args.length > 0) ? Long.parseLong(args[0]) : 1024;
+		SimpleDB.initFileAndLogMgr("pagebench");
+		int blocksize = SimpleDB.fileMgr().blockSize();
+		int numpages = (int) (poolmb * 1024 * 1024 / blocksize);
+		System.out.println(numpages + " pages of " + blocksize + " bytes");
+
+		long start = System.nanoTime();
+		List<Page> pages = new ArrayList<Page>(numpages);
+		for (int i=0; i<numpages; i++)
+			pages.add(new Page());
+		report("page-per-buffer allocation", start, numpages);
+		pages = null;
+		System.gc();
+
+		start = System.nanoTime();
+		PageArena arena = new PageArena(numpages);
+		for (int i=0; i<numpages; i++)
+			arena.newPage();
+		report("arena allocation", start, numpages);
+		arena = null;
+		System.gc();
+
+		start = System.nanoTime();
+		BufferMgr bm = new BufferMgr(numpages);
+		report("buffer manager startup", start, numpages);
+		bm = null;
+		System.gc();
+
+		start = System.nanoTime();
+		for (int i=0; i<NUM_ITERATORS; i++) {
+			Page p = new Page();  // what each LogIterator used to do
+			p.read(new Block(SimpleDB.LOG_FILE, 0));
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("iterator, new page:      %6d ns each, %5d MB/s of direct memory allocated%n",
+				elapsed / NUM_ITERATORS, (long) NUM_ITERATORS * blocksize * 1000 / elapsed);
+
+		long count = directCount();
+		start = System.nanoTime();
+		for (int i=0; i<NUM_ITERATORS; i++) {
+			Page p = Page.borrow();  // what each LogIterator does now
+			p.read(new Block(SimpleDB.LOG_FILE, 0));
+			Page.release(p);
+		}
+		elapsed = System.nanoTime() - start;
+		System.out.printf("iterator, borrowed page: %6d ns each, %d direct buffers allocated%n",
+				elapsed / NUM_ITERATORS, Math.max(0, directCount() - count));
+	}
+
+	private static void report(String label, long start, int numpages) {
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-28s %6d ms, %d direct buffers in use%n",
+				label + ":", elapsed / 1000000, directCount());
+	}
+
+	// direct buffers currently allocated by the JVM; slices are not counted
+	private static long directCount() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+			if (pool.getName().equals("direct"))
+				return pool.getCount();
+		return 0;
+	}
+}
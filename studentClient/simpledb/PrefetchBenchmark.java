@@ -0,0 +1,100 @@
+import java.io.FileWriter;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.TableScan;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/* Measures a full table scan on a cold cache, reading
+ * one block at a time ("single"), reading runs of blocks
+ * when the scan reaches them ("runs"), or reading runs ahead
+ * of the scan in the background ("prefetch").
+ * The mode is given as the first argument.
+ * The first execution loads a table of half a million records,
+ * which is kept for later executions.
+ * Each execution then empties the operating system's cache
+ * (which requires root privileges; the program says whether
+ * it succeeded) and scans the table once.  The scan does some
+ * work on each record, so that a background read can overlap it.
+ * Each mode should be run in its own JVM, since the buffer pool
+ * is also cold only right after startup.
+ * On a simulated disk (see SimpleDB.SIMULATED_DISK), the program
+ * also prints the simulated disk time of the scan; the operating
+ * system's cache then does not matter.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.
+ */
+
+public class PrefetchBenchmark {
+	private static final int NUM_RECS = 500000;
+
+	public static void main(String[] args) {
+		try {
+			String mode = (args.length > 0) ? args[0] : "prefetch";
+			if (!mode.equals("single") && !mode.equals("runs") && !mode.equals("prefetch")) {
+				System.out.println("usage: PrefetchBenchmark single|runs|prefetch");
+				return;
+			}
+			SimpleDB.BUFFER_SIZE = 256;
+			SimpleDB.HOT_BLOCK_INTERVAL = 0;
+			SimpleDB.READ_RUN_SIZE = mode.equals("single") ? 1 : 16;
+			SimpleDB.PREFETCH = mode.equals("prefetch");
+			SimpleDB.init("prefetchbench");
+
+			Schema sch = new Schema();
+			sch.addIntField("id");
+			sch.addStringField("name", 10);
+			TableInfo ti = new TableInfo("prefetchbench", sch);
+			Transaction tx = new Transaction();
+			if (tx.size(ti.fileName()) == 0) {
+				TableScan ts = new TableScan(ti, tx);
+				for (int i=0; i<NUM_RECS; i++) {
+					ts.insert();
+					ts.setInt("id", i);
+					ts.setString("name", "rec" + i);
+				}
+				ts.close();
+				tx.commit();
+				tx = new Transaction();
+			}
+			System.out.println(tx.size(ti.fileName()) + " blocks, "
+					+ (dropCaches() ? "cold" : "warm (could not empty the cache)")
+					+ " operating system cache");
+
+			FileMgr fm = SimpleDB.fileMgr();
+			if (fm instanceof SimulatedFileMgr)
+				((SimulatedFileMgr) fm).resetStats();
+			long calls = fm.readCalls();
+			long rows = 0, sum = 0;
+			long start = System.nanoTime();
+			TableScan ts = new TableScan(ti, tx);
+			while (ts.next()) {
+				sum += ts.getInt("id") + ts.getString("name").hashCode() % 7;
+				rows++;
+			}
+			ts.close();
+			long elapsed = System.nanoTime() - start;
+			tx.commit();
+			System.out.printf("%s: %d rows (checksum %d) in %d ms, %d read calls%n",
+					mode, rows, sum, elapsed / 1000000, fm.readCalls() - calls);
+			if (fm instanceof SimulatedFileMgr)
+				System.out.println(fm);
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static boolean dropCaches() {
+		try {
+			Runtime.getRuntime().exec(new String[] {"sync"}).waitFor();
+			FileWriter w = new FileWriter("/proc/sys/vm/drop_caches");
+			w.write("3\n");
+			w.close();
+			return true;
+		}
+		catch(Exception e) {
+			return false;
+		}
+	}
+}
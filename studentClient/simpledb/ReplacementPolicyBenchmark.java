@@ -0,0 +1,57 @@
+import java.util.Random;
+import simpledb.buffer.*;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/* Reports the buffer hit rate of each replacement policy
+ * on a synthetic mixed workload.  Each short transaction pins
+ * a few catalog blocks, an index root and a data block chosen
+ * with an 80/20 skew; every so often a full scan of a large
+ * table runs in between.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The pool size can be given as an argument.
+ * On a simulated disk (see SimpleDB.SIMULATED_DISK), the program
+ * also prints the simulated disk time of each policy, which
+ * accounts for the seeks that the misses cause.
+ */
+
+public class ReplacementPolicyBenchmark {
+	private static final int NUM_TXS = 200000;
+	private static final int SCAN_EVERY = 500;
+	private static final int SCAN_BLOCKS = 1000;
+	private static final int DATA_BLOCKS = 4000;
+
+	public static void main(String[] args) {
+		int numbuffs = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+		SimpleDB.initFileAndLogMgr("policybench");
+		String[] policies = {ReplacementPolicy.LRU, ReplacementPolicy.CLOCK,
+				ReplacementPolicy.LRU_K, ReplacementPolicy.TWO_Q};
+		FileMgr fm = SimpleDB.fileMgr();
+		for (String policy : policies) {
+			if (fm instanceof SimulatedFileMgr)
+				((SimulatedFileMgr) fm).resetStats();
+			BufferMgr bm = new BufferMgr(numbuffs, policy);
+			Random rand = new Random(1);
+			for (int i=0; i<NUM_TXS; i++) {
+				access(bm, new Block("tblcat.tbl", 0));
+				access(bm, new Block("fldcat.tbl", rand.nextInt(4)));
+				access(bm, new Block("idxdir.tbl", 0));
+				int blknum = (rand.nextInt(5) < 4)
+						? rand.nextInt(DATA_BLOCKS / 5)
+						: rand.nextInt(DATA_BLOCKS);
+				access(bm, new Block("data.tbl", blknum));
+				if (i % SCAN_EVERY == 0)
+					for (int b=0; b<SCAN_BLOCKS; b++)
+						access(bm, new Block("big.tbl", b));
+			}
+			System.out.printf("%-6s pool %d: hit rate %.3f%n",
+					policy, numbuffs, bm.hitRate());
+			if (fm instanceof SimulatedFileMgr)
+				System.out.println("       " + fm);
+		}
+	}
+
+	private static void access(BufferMgr bm, Block blk) {
+		bm.unpin(bm.pin(blk));
+	}
+}
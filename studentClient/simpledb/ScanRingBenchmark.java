@@ -0,0 +1,133 @@
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.*;
+import simpledb.server.SimpleDB;
+
+/* Measures the latency of OLTP-style point reads of a small,
+ * frequently-used table while another thread repeatedly scans
+ * a table that is several times larger than the buffer pool.
+ * The reader pauses briefly between reads, like a client would,
+ * so that the scan has time to replace the pool's blocks.
+ * After the scan stops, the hot table is read once more to count
+ * how many of its blocks the scan pushed out of the pool;
+ * on a machine with few processors, that count shows the effect
+ * of the ring more clearly than the latencies do.
+ * The reads are measured with no scan running, with the scan
+ * using the replacement policy, and with the scan recycling
+ * its own buffer ring.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The pool size can be given as an argument.
+ */
+
+public class ScanRingBenchmark {
+	private static final int HOT_RECORDS = 1800;
+	private static final int BIG_RECORDS = 10000;
+	private static final int NUM_READS = 20000;
+	private static final long THINK_TIME = 50000; // ns between reads
+
+	private static volatile boolean stopped;
+
+	public static void main(String[] args) {
+		try {
+			SimpleDB.BUFFER_SIZE = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+			SimpleDB.BUFFER_RING_SIZE = 32;
+			SimpleDB.init("ringbench");
+
+			Schema sch = new Schema();
+			sch.addIntField("id");
+			sch.addStringField("pad", 400);
+			TableInfo hot = new TableInfo("hot", sch);
+			TableInfo big = new TableInfo("big", sch);
+
+			Transaction tx = new Transaction();
+			if (tx.size(big.fileName()) == 0) {
+				load(hot, HOT_RECORDS, tx);
+				load(big, BIG_RECORDS, tx);
+			}
+			System.out.println("pool " + SimpleDB.BUFFER_SIZE + ": hot table "
+					+ tx.size(hot.fileName()) + " blocks, big table "
+					+ tx.size(big.fileName()) + " blocks");
+			List<RID> rids = new ArrayList<RID>();
+			TableScan ts = new TableScan(hot, tx);
+			while (ts.next())
+				rids.add(ts.getRid());
+			ts.close();
+			tx.commit();
+
+			measure("no scan     ", hot, big, rids, false, 0);
+			measure("scan, policy", hot, big, rids, true, 0);
+			measure("scan, ring  ", hot, big, rids, true, SimpleDB.BUFFER_RING_SIZE);
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void measure(String label, TableInfo hot, final TableInfo big,
+			List<RID> rids, boolean withScan, int ringsize) throws InterruptedException {
+		SimpleDB.bufferMgr().setRingSize(ringsize);
+		Transaction tx = new Transaction();
+		TableScan ts = new TableScan(hot, tx);
+		for (RID rid : rids) {  // warm the pool
+			ts.moveToRid(rid);
+			ts.getInt("id");
+		}
+
+		final Transaction scantx = new Transaction();
+		final long[] scanned = new long[1];
+		stopped = false;
+		Thread scanner = new Thread() {
+			public void run() {
+				while (!stopped) {
+					TableScan s = new TableScan(big, scantx);
+					while (s.next() && !stopped)
+						scanned[0]++;
+					s.close();
+				}
+			}
+		};
+		if (withScan)
+			scanner.start();
+
+		Random rand = new Random(1);
+		long[] latencies = new long[NUM_READS];
+		for (int i=0; i<NUM_READS; i++) {
+			long start = System.nanoTime();
+			ts.moveToRid(rids.get(rand.nextInt(rids.size())));
+			ts.getInt("id");
+			latencies[i] = System.nanoTime() - start;
+			LockSupport.parkNanos(THINK_TIME);
+		}
+		stopped = true;
+		if (withScan)
+			scanner.join();
+		long misses = SimpleDB.bufferMgr().misses();
+		for (RID rid : rids) {
+			ts.moveToRid(rid);
+			ts.getInt("id");
+		}
+		misses = SimpleDB.bufferMgr().misses() - misses;
+		ts.close();
+		scantx.commit();
+		tx.commit();
+
+		Arrays.sort(latencies);
+		long total = 0;
+		for (long t : latencies)
+			total += t;
+		System.out.printf("%s: mean %6d ns, p99 %7d ns, %d records scanned, %d hot blocks evicted%n",
+				label, total / NUM_READS, latencies[NUM_READS * 99 / 100], scanned[0], misses);
+	}
+
+	private static void load(TableInfo ti, int numrecs, Transaction tx) {
+		TableScan ts = new TableScan(ti, tx);
+		for (int i=0; i<numrecs; i++) {
+			ts.insert();
+			ts.setInt("id", i);
+			ts.setString("pad", "rec" + i);
+		}
+		ts.close();
+	}
+}
@@ -0,0 +1,94 @@
+import java.io.File;
+import java.util.*;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.query.*;
+import simpledb.file.FileMgr;
+import simpledb.materialize.SortPlan;
+import simpledb.server.SimpleDB;
+
+/* Compares sorts whose runs are stored in plain temporary files
+ * with sorts whose runs are stored compressed.
+ * The sorted tables are string-heavy: each record has three
+ * wide string fields, whose values are much shorter than the
+ * fields, as is usual.  Each mode sorts two freshly loaded tables,
+ * alternately, and the program prints the time of each sort and
+ * the number of bytes written to and read from files during it.
+ * Since a sort also rewrites its table in sorted order,
+ * the program deletes its database directory at startup,
+ * so that every execution sorts unsorted tables.
+ * The program accesses the SimpleDB classes directly, like
+ * StudentMajorNoServer.  The number of records per table
+ * can be given as an argument.
+ */
+
+public class TempCompressionBenchmark {
+	private static final String DB_NAME = "compressbench";
+
+	public static void main(String[] args) {
+		try {
+			int numrecs = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+			deleteDirectory(new File(System.getProperty("user.home"), DB_NAME));
+			SimpleDB.BUFFER_SIZE = 100;
+			SimpleDB.HOT_BLOCK_INTERVAL = 0;
+			SimpleDB.init(DB_NAME);
+
+			Schema sch = new Schema();
+			sch.addIntField("id");
+			sch.addStringField("name", 40);
+			sch.addStringField("city", 40);
+			sch.addStringField("note", 60);
+			FileMgr fm = SimpleDB.fileMgr();
+			boolean[] modes = {false, true, false, true};
+			for (int i=0; i<modes.length; i++) {
+				String tblname = "strings" + i;
+				Transaction tx = new Transaction();
+				SimpleDB.mdMgr().createTable(tblname, sch, tx);
+				load(SimpleDB.mdMgr().getTableInfo(tblname, tx), numrecs, tx);
+				tx.commit();
+
+				fm.setCompressTempFiles(modes[i]);
+				long written = fm.bytesWritten(), read = fm.bytesRead();
+				long start = System.nanoTime();
+				tx = new Transaction();
+				Plan p = new SortPlan(new TablePlan(tblname, tx), Arrays.asList("name"), tx);
+				Scan s = p.open();
+				long count = 0;
+				while (s.next())
+					count++;
+				s.close();
+				tx.commit();
+				long elapsed = System.nanoTime() - start;
+				System.out.printf("%-10s: %d records sorted in %5d ms, %6d KB written, %6d KB read%n",
+						modes[i] ? "compressed" : "plain", count, elapsed / 1000000,
+						(fm.bytesWritten() - written) / 1024, (fm.bytesRead() - read) / 1024);
+			}
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void load(TableInfo ti, int numrecs, Transaction tx) {
+		String[] cities = {"Boston", "Chicago", "Denver", "Houston", "Seattle"};
+		Random rand = new Random(1);
+		TableScan ts = new TableScan(ti, tx);
+		for (int i=0; i<numrecs; i++) {
+			ts.insert();
+			ts.setInt("id", i);
+			ts.setString("name", "name" + rand.nextInt(1000000));
+			ts.setString("city", cities[rand.nextInt(cities.length)]);
+			ts.setString("note", "note " + i);
+		}
+		ts.close();
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+			f.delete();
+		dir.delete();
+	}
+}